@@ -1,7 +1,21 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.*;
+import java.util.stream.*;
 import java.time.*;
 import java.time.format.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import javax.management.*;
 
 public class TaskPlanner {
 
@@ -43,6 +57,9 @@ public class TaskPlanner {
 
     // Класс задачи
     static class Task {
+        private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+
         private int id;
         private String title;
         private String description;
@@ -51,6 +68,9 @@ public class TaskPlanner {
         private LocalDate deadline;
         private LocalDateTime createdAt;
         private LocalDateTime updatedAt;
+        // Описание из снимка: вместо строки - ссылка в файл описаний,
+        // строка читается при первом обращении (см. DescriptionHeap)
+        private DescriptionHeap.Ref descriptionRef;
 
         public Task(int id, String title, String description,
                     Status status, Priority priority, LocalDate deadline,
@@ -74,7 +94,7 @@ public class TaskPlanner {
         // Геттеры
         public int getId() { return id; }
         public String getTitle() { return title; }
-        public String getDescription() { return description; }
+        public String getDescription() { return descriptionRef != null ? descriptionRef.load() : description; }
         public Status getStatus() { return status; }
         public Priority getPriority() { return priority; }
         public LocalDate getDeadline() { return deadline; }
@@ -89,6 +109,7 @@ public class TaskPlanner {
 
         public void setDescription(String description) {
             this.description = description;
+            this.descriptionRef = null;
             this.updatedAt = LocalDateTime.now();
         }
 
@@ -107,393 +128,4166 @@ public class TaskPlanner {
             this.updatedAt = LocalDateTime.now();
         }
 
+        // Независимая копия задачи (для событий, которые читаются в других потоках)
+        public Task copy() {
+            Task copy = new Task(id, title, description, status, priority, deadline, createdAt, updatedAt);
+            copy.descriptionRef = descriptionRef;
+            return copy;
+        }
+
+        DescriptionHeap.Ref getDescriptionRef() {
+            return descriptionRef;
+        }
+
+        void setDescriptionRef(DescriptionHeap.Ref ref) {
+            this.descriptionRef = ref;
+            this.description = null;
+        }
+
+        // Поля из другой версии задачи (отмена и повтор изменений).
+        // Время изменения - текущее: для экспорта это новое изменение.
+        void restoreFrom(Task other) {
+            this.title = other.title;
+            this.description = other.description;
+            this.descriptionRef = other.descriptionRef;
+            this.status = other.status;
+            this.priority = other.priority;
+            this.deadline = other.deadline;
+            this.updatedAt = LocalDateTime.now();
+        }
+
+        // Явная отметка времени изменения: у всех задач одного массового
+        // изменения она одинаковая
+        public void setUpdatedAt(LocalDateTime updatedAt) {
+            this.updatedAt = updatedAt;
+        }
+
         // Проверка просроченности
         public boolean isOverdue() {
-            return deadline != null && deadline.isBefore(LocalDate.now()) && status != Status.DONE;
+            return isOverdue(LocalDate.now());
+        }
+
+        // Относительно заданного дня: при выводе списка день берется один раз
+        public boolean isOverdue(LocalDate today) {
+            return deadline != null && deadline.isBefore(today) && status != Status.DONE;
         }
 
         // Дней до дедлайна
         public long daysUntilDeadline() {
+            return daysUntilDeadline(LocalDate.now());
+        }
+
+        public long daysUntilDeadline(LocalDate today) {
             if (deadline == null) return Long.MAX_VALUE;
-            return deadline.toEpochDay() - LocalDate.now().toEpochDay();
+            return deadline.toEpochDay() - today.toEpochDay();
         }
 
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
+            StringBuilder sb = new StringBuilder(512);
+            appendTo(sb);
+            return sb.toString();
+        }
+
+        // Карточка задачи для вывода на экран
+        public void appendTo(StringBuilder sb) {
+            appendTo(sb, LocalDate.now());
+        }
+
+        public void appendTo(StringBuilder sb, LocalDate today) {
             sb.append("┌─────────────────────────────────────────────────\n");
-            sb.append(String.format("│ ID: %d\n", id));
-            sb.append(String.format("│ 📌 %s\n", title));
-            sb.append(String.format("│ 📝 %s\n", description.isEmpty() ? "(без описания)" : description));
-            sb.append(String.format("│ 🏷️  Статус: %s\n", status));
-            sb.append(String.format("│ ⚡ Приоритет: %s\n", priority));
+            sb.append("│ ID: ").append(id).append('\n');
+            sb.append("│ 📌 ").append(title).append('\n');
+            String description = getDescription();
+            sb.append("│ 📝 ").append(description.isEmpty() ? "(без описания)" : description).append('\n');
+            sb.append("│ 🏷️  Статус: ").append(status).append('\n');
+            sb.append("│ ⚡ Приоритет: ").append(priority).append('\n');
 
             if (deadline != null) {
-                String deadlineStr = deadline.format(DateTimeFormatter.ofPattern("dd.MM.yyyy"));
-                if (isOverdue()) {
-                    sb.append(String.format("│ ⏰ Дедлайн: %s (❗ПРОСРОЧЕНО❗)\n", deadlineStr));
-                } else if (daysUntilDeadline() <= 3) {
-                    sb.append(String.format("│ ⏰ Дедлайн: %s (⚠️ СКОРО истекает: %d дней)\n",
-                            deadlineStr, daysUntilDeadline()));
+                sb.append("│ ⏰ Дедлайн: ");
+                DAY_FORMAT.formatTo(deadline, sb);
+                long days = daysUntilDeadline(today);
+                if (isOverdue(today)) {
+                    sb.append(" (❗ПРОСРОЧЕНО❗)\n");
+                } else if (days <= 3) {
+                    sb.append(" (⚠️ СКОРО истекает: ").append(days).append(" дней)\n");
                 } else {
-                    sb.append(String.format("│ ⏰ Дедлайн: %s (осталось %d дней)\n",
-                            deadlineStr, daysUntilDeadline()));
+                    sb.append(" (осталось ").append(days).append(" дней)\n");
                 }
             } else {
                 sb.append("│ ⏰ Дедлайн: не установлен\n");
             }
 
-            sb.append(String.format("│ 📅 Создано: %s\n",
-                    createdAt.format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"))));
-            sb.append(String.format("│ 🔄 Обновлено: %s\n",
-                    updatedAt.format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"))));
-            sb.append("└─────────────────────────────────────────────────");
-
-            return sb.toString();
+            sb.append("│ 📅 Создано: ");
+            TIME_FORMAT.formatTo(createdAt, sb);
+            sb.append("\n│ 🔄 Обновлено: ");
+            TIME_FORMAT.formatTo(updatedAt, sb);
+            sb.append("\n└─────────────────────────────────────────────────");
         }
 
         // Для CSV экспорта
         public String toCSV() {
-            return String.format("%d;%s;%s;%s;%s;%s;%s;%s",
-                    id,
-                    title.replace(";", ","),
-                    description.replace(";", ","),
-                    status.name(),
-                    priority.name(),
-                    deadline != null ? deadline.format(DateTimeFormatter.ISO_DATE) : "",
-                    createdAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                    updatedAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
-            );
+            StringBuilder sb = new StringBuilder(128);
+            TaskEncoder.appendCSV(sb, this);
+            return sb.toString();
         }
 
         // Для JSON экспорта
         public String toJSON() {
-            return String.format("""
-                {
-                  "id": %d,
-                  "title": "%s",
-                  "description": "%s",
-                  "status": "%s",
-                  "priority": "%s",
-                  "deadline": "%s",
-                  "createdAt": "%s",
-                  "updatedAt": "%s"
-                }""",
-                    id,
-                    escapeJson(title),
-                    escapeJson(description),
-                    status.name(),
-                    priority.name(),
-                    deadline != null ? deadline.format(DateTimeFormatter.ISO_DATE) : "",
-                    createdAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                    updatedAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
-            );
-        }
-
-        private String escapeJson(String str) {
-            return str.replace("\\", "\\\\")
-                    .replace("\"", "\\\"")
-                    .replace("\n", "\\n")
-                    .replace("\r", "\\r")
-                    .replace("\t", "\\t");
+            StringBuilder sb = new StringBuilder(256);
+            TaskEncoder.appendJSON(sb, this);
+            return sb.toString();
         }
     }
 
-    // Основной класс приложения
-    private List<Task> tasks;
-    private int nextId;
-    private final Scanner scanner;
-    private static final String CSV_FILE = "tasks.csv";
-    private static final String JSON_FILE = "tasks.json";
-    private static final DateTimeFormatter DATE_FORMATTER =
-            DateTimeFormatter.ofPattern("dd.MM.yyyy");
-
-    public TaskPlanner() {
-        tasks = new ArrayList<>();
-        scanner = new Scanner(System.in);
-        nextId = 1;
-        loadFromCSV();
-    }
-
-    // ==================== ОСНОВНЫЕ МЕТОДЫ ====================
+    // Кодирование задач в CSV и JSON без String.format и DateTimeFormatter:
+    // поля и даты дописываются посимвольно в переданный буфер
+    static class TaskEncoder {
+        static void appendCSV(StringBuilder sb, Task task) {
+            sb.append(task.getId()).append(';');
+            appendCSVField(sb, task.getTitle());
+            sb.append(';');
+            appendCSVField(sb, task.getDescription());
+            sb.append(';').append(task.getStatus().name())
+                    .append(';').append(task.getPriority().name())
+                    .append(';');
+            if (task.getDeadline() != null) {
+                appendDate(sb, task.getDeadline());
+            }
+            sb.append(';');
+            appendDateTime(sb, task.getCreatedAt());
+            sb.append(';');
+            appendDateTime(sb, task.getUpdatedAt());
+        }
 
-    public void run() {
-        System.out.println("═══════════════════════════════════════════════");
-        System.out.println("        📝 ПЛАНИРОВЩИК ЗАДАЧ v1.0");
-        System.out.println("═══════════════════════════════════════════════");
+        static void appendJSON(StringBuilder sb, Task task) {
+            sb.append("{\n  \"id\": ").append(task.getId());
+            sb.append(",\n  \"title\": \"");
+            appendJSONString(sb, task.getTitle());
+            sb.append("\",\n  \"description\": \"");
+            appendJSONString(sb, task.getDescription());
+            sb.append("\",\n  \"status\": \"").append(task.getStatus().name());
+            sb.append("\",\n  \"priority\": \"").append(task.getPriority().name());
+            sb.append("\",\n  \"deadline\": \"");
+            if (task.getDeadline() != null) {
+                appendDate(sb, task.getDeadline());
+            }
+            sb.append("\",\n  \"createdAt\": \"");
+            appendDateTime(sb, task.getCreatedAt());
+            sb.append("\",\n  \"updatedAt\": \"");
+            appendDateTime(sb, task.getUpdatedAt());
+            sb.append("\"\n}");
+        }
 
-        while (true) {
-            printMenu();
-            String choice = scanner.nextLine().trim();
+        // Запись журнала: поля как в CSV, но текст экранируется обратимо,
+        // поэтому ';' и переводы строк не искажаются при восстановлении
+        static void appendJournal(StringBuilder sb, Task task) {
+            sb.append(task.getId()).append(';');
+            appendEscaped(sb, task.getTitle());
+            sb.append(';');
+            appendEscaped(sb, task.getDescription());
+            sb.append(';').append(task.getStatus().name())
+                    .append(';').append(task.getPriority().name())
+                    .append(';');
+            if (task.getDeadline() != null) {
+                appendDate(sb, task.getDeadline());
+            }
+            sb.append(';');
+            appendDateTime(sb, task.getCreatedAt());
+            sb.append(';');
+            appendDateTime(sb, task.getUpdatedAt());
+        }
 
-            switch (choice) {
-                case "1" -> addTask();
-                case "2" -> showAllTasks();
-                case "3" -> editTask();
-                case "4" -> deleteTask();
-                case "5" -> filterTasks();
-                case "6" -> searchTasks();
-                case "7" -> showStatistics();
-                case "8" -> showUpcomingTasks();
-                case "9" -> saveToCSV();
-                case "10" -> saveToJSON();
-                case "11" -> loadFromCSV();
-                case "12" -> loadFromJSON();
-                case "0" -> {
-                    saveToCSV();
-                    System.out.println("👋 До свидания! Все данные сохранены.");
-                    return;
+        // \\ - обратная косая черта, \d - ';', \n и \r - переводы строк
+        private static void appendEscaped(StringBuilder sb, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case ';' -> sb.append("\\d");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    default -> sb.append(c);
                 }
-                default -> System.out.println("❌ Неверный выбор. Попробуйте снова.");
             }
-
-            System.out.println("\nНажмите Enter для продолжения...");
-            scanner.nextLine();
         }
-    }
 
-    private void printMenu() {
-        clearScreen();
-        System.out.println("═══════════════════════════════════════════════");
-        System.out.println("                  ГЛАВНОЕ МЕНЮ");
-        System.out.println("═══════════════════════════════════════════════");
-        System.out.println("1. ➕ Добавить новую задачу");
-        System.out.println("2. 👁️  Показать все задачи");
-        System.out.println("3. ✏️  Редактировать задачу");
-        System.out.println("4. ❌ Удалить задачу");
-        System.out.println("5. 🔍 Фильтровать задачи");
-        System.out.println("6. 🔎 Поиск задач");
-        System.out.println("7. 📊 Статистика");
-        System.out.println("8. ⏰ Предстоящие задачи");
-        System.out.println("9. 💾 Сохранить в CSV");
-        System.out.println("10. 💾 Сохранить в JSON");
-        System.out.println("11. 📂 Загрузить из CSV");
-        System.out.println("12. 📂 Загрузить из JSON");
-        System.out.println("0. 🚪 Выход");
-        System.out.println("═══════════════════════════════════════════════");
-        System.out.print("Выберите действие: ");
-    }
+        static String unescape(String value) {
+            if (value.indexOf('\\') < 0) return value;
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (++i == value.length()) throw new IllegalArgumentException("обрыв экранирования");
+                switch (value.charAt(i)) {
+                    case '\\' -> sb.append('\\');
+                    case 'd' -> sb.append(';');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    default -> throw new IllegalArgumentException("неизвестное экранирование: \\" + value.charAt(i));
+                }
+            }
+            return sb.toString();
+        }
 
-    // ==================== ОПЕРАЦИИ С ЗАДАЧАМИ ====================
+        // Отметка об удалении для инкрементального экспорта
+        static void appendTombstoneCSV(StringBuilder sb, int id, LocalDateTime deletedAt) {
+            sb.append(id).append(';');
+            appendDateTime(sb, deletedAt);
+        }
 
-    private void addTask() {
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("              ДОБАВЛЕНИЕ НОВОЙ ЗАДАЧИ");
-        System.out.println("═══════════════════════════════════════════════");
+        static void appendTombstoneJSON(StringBuilder sb, int id, LocalDateTime deletedAt) {
+            sb.append("{\n  \"id\": ").append(id);
+            sb.append(",\n  \"deletedAt\": \"");
+            appendDateTime(sb, deletedAt);
+            sb.append("\"\n}");
+        }
 
-        System.out.print("📌 Название задачи: ");
-        String title = scanner.nextLine().trim();
-        if (title.isEmpty()) {
-            System.out.println("❌ Название не может быть пустым!");
-            return;
+        // Разделитель и переводы строк заменяются, чтобы запись осталась одной строкой
+        private static void appendCSVField(StringBuilder sb, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case ';' -> sb.append(',');
+                    case '\n', '\r' -> sb.append(' ');
+                    default -> sb.append(c);
+                }
+            }
         }
 
-        System.out.print("📝 Описание (Enter чтобы пропустить): ");
-        String description = scanner.nextLine().trim();
+        private static void appendJSONString(StringBuilder sb, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case '"' -> sb.append("\\\"");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+        }
 
-        Status status = selectStatus();
-        Priority priority = selectPriority();
-        LocalDate deadline = selectDeadline();
+        // То же, что DateTimeFormatter.ISO_LOCAL_DATE
+        static void appendDate(StringBuilder sb, LocalDate date) {
+            int year = date.getYear();
+            if (year < 0 || year > 9999) {
+                sb.append(date.format(DateTimeFormatter.ISO_LOCAL_DATE));
+                return;
+            }
+            appendPadded(sb, year, 4);
+            sb.append('-');
+            appendPadded(sb, date.getMonthValue(), 2);
+            sb.append('-');
+            appendPadded(sb, date.getDayOfMonth(), 2);
+        }
 
-        Task task = new Task(nextId++, title, description, status, priority, deadline);
-        tasks.add(task);
+        // То же, что DateTimeFormatter.ISO_LOCAL_DATE_TIME: секунды всегда,
+        // доли секунды без завершающих нулей
+        static void appendDateTime(StringBuilder sb, LocalDateTime dateTime) {
+            appendDate(sb, dateTime.toLocalDate());
+            sb.append('T');
+            appendPadded(sb, dateTime.getHour(), 2);
+            sb.append(':');
+            appendPadded(sb, dateTime.getMinute(), 2);
+            sb.append(':');
+            appendPadded(sb, dateTime.getSecond(), 2);
+
+            int nano = dateTime.getNano();
+            if (nano != 0) {
+                int digits = 9;
+                while (nano % 10 == 0) {
+                    nano /= 10;
+                    digits--;
+                }
+                sb.append('.');
+                appendPadded(sb, nano, digits);
+            }
+        }
 
-        System.out.println("\n✅ Задача успешно добавлена!");
-        System.out.println(task);
+        private static void appendPadded(StringBuilder sb, int value, int width) {
+            for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+                if (value < limit) sb.append('0');
+            }
+            sb.append(value);
+        }
     }
 
-    private void showAllTasks() {
-        if (tasks.isEmpty()) {
-            System.out.println("\n📭 Список задач пуст.");
-            return;
+    // Запись текстового файла через FileChannel: записи дописываются в общий
+    // StringBuilder, который по мере заполнения кодируется в один байтовый буфер
+    static class TaskFileWriter implements Closeable {
+        private static final int FLUSH_CHARS = 64 * 1024;
+
+        private final FileChannel channel;
+        private final CharsetEncoder encoder;
+        private final StringBuilder chars = new StringBuilder(FLUSH_CHARS + 1024);
+        private final ByteBuffer bytes = ByteBuffer.allocate(128 * 1024);
+        private long bytesWritten;
+
+        TaskFileWriter(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.encoder = Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
         }
 
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("               ВСЕ ЗАДАЧИ (" + tasks.size() + ")");
-        System.out.println("═══════════════════════════════════════════════");
+        // Буфер для следующей записи; после заполнения нужно вызвать endRecord()
+        public StringBuilder buffer() {
+            return chars;
+        }
 
-        List<Task> sortedTasks = new ArrayList<>(tasks);
-        sortedTasks.sort((t1, t2) -> {
-            // Сортировка по приоритету
-            int priorityCompare = Integer.compare(
-                    getPriorityValue(t1.getPriority()),
-                    getPriorityValue(t2.getPriority())
-            );
-            if (priorityCompare != 0) return priorityCompare;
+        public void endRecord() throws IOException {
+            if (chars.length() >= FLUSH_CHARS) {
+                encode(false);
+            }
+        }
 
-            // Сортировка по дедлайну
-            LocalDate d1 = t1.getDeadline() != null ? t1.getDeadline() : LocalDate.MAX;
-            LocalDate d2 = t2.getDeadline() != null ? t2.getDeadline() : LocalDate.MAX;
-            int dateCompare = d1.compareTo(d2);
-            if (dateCompare != 0) return dateCompare;
+        public long bytesWritten() {
+            return bytesWritten;
+        }
 
-            // Сортировка по ID
-            return Integer.compare(t1.getId(), t2.getId());
-        });
+        private void encode(boolean endOfInput) throws IOException {
+            CharBuffer in = CharBuffer.wrap(chars);
+            while (true) {
+                CoderResult result = encoder.encode(in, bytes, endOfInput);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+            // Незакрытая суррогатная пара остается в буфере до следующей записи
+            chars.delete(0, in.position());
 
-        for (Task task : sortedTasks) {
-            System.out.println(task);
-            System.out.println();
+            if (endOfInput) {
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain();
+                }
+            }
+            drain();
         }
 
-        long overdueCount = 0;
-        for (Task task : tasks) {
-            if (task.isOverdue()) {
-                overdueCount++;
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                bytesWritten += channel.write(bytes);
             }
+            bytes.clear();
         }
 
-        if (overdueCount > 0) {
-            System.out.println("⚠️  ВНИМАНИЕ: " + overdueCount + " задач просрочено!");
+        @Override
+        public void close() throws IOException {
+            try {
+                encode(true);
+            } finally {
+                channel.close();
+            }
         }
     }
 
-    private int getPriorityValue(Priority priority) {
-        return switch (priority) {
-            case HIGH -> 0;
-            case MEDIUM -> 1;
-            case LOW -> 2;
-        };
-    }
-
-    private void editTask() {
-        if (tasks.isEmpty()) {
-            System.out.println("\n📭 Нет задач для редактирования.");
-            return;
+    // Инвертированный индекс для поиска по названию и описанию.
+    // Ключи - триграммы нормализованного текста (отдельно для названия и для
+    // описания), значения - ID задач. Текст дополняется граничными символами,
+    // поэтому каждый символ входит хотя бы в одну триграмму и запросы короче
+    // триграммы ищутся по ключам, а не перебором задач. Нормализованное
+    // название хранится для проверки кандидатов; описание не хранится и
+    // читается у задачи (из снимка - лениво) только для кандидатов по описанию.
+    // Индекс сохраняется вместе со снимком (write/read); у каждой записи есть
+    // отметка updatedAt, по которой прочитанный индекс сверяется с задачами.
+    static class SearchIndex {
+        private static final int GRAM = 3;
+        private static final char START = '\u0002';
+        private static final char END = '\u0003';
+        // Бит ключа: триграмма описания, а не названия
+        private static final long DESCRIPTION = 1L << 48;
+        private static final int MAGIC = 0x54505349; // "TPSI"
+        private static final int VERSION = 1;
+
+        private static class Entry {
+            final String title;
+            // updatedAt задачи в наносекундах на момент индексации
+            final long stamp;
+            // Сколько записей в списках добавила задача
+            final int postings;
+
+            Entry(String title, long stamp, int postings) {
+                this.title = title;
+                this.stamp = stamp;
+                this.postings = postings;
+            }
         }
 
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("               РЕДАКТИРОВАНИЕ ЗАДАЧИ");
-        System.out.println("═══════════════════════════════════════════════");
-
-        showAllTasks();
-        System.out.print("\nВведите ID задачи для редактирования: ");
+        // Список ID для одной триграммы. При удалении задачи ID из списков не
+        // вычеркиваются: кандидаты все равно проверяются по тексту, а списки
+        // пересобираются, когда устаревших записей становится больше живых.
+        private static class Postings {
+            int[] ids;
+            int size;
 
-        try {
-            int id = Integer.parseInt(scanner.nextLine().trim());
-            Task task = findTaskById(id);
+            Postings(int capacity) {
+                ids = new int[capacity];
+            }
 
-            if (task == null) {
-                System.out.println("❌ Задача с ID " + id + " не найдена.");
-                return;
+            boolean add(int id) {
+                if (size > 0 && ids[size - 1] == id) return false;
+                if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+                ids[size++] = id;
+                return true;
             }
 
-            System.out.println("\nРедактирование задачи:");
-            System.out.println(task);
+            // Читатель без блокировки берет массив один раз, а длину
+            // ограничивает им: параллельное добавление не выведет за границу
+            int size(int[] ids) {
+                return Math.min(size, ids.length);
+            }
+        }
 
-            System.out.println("\nЧто вы хотите изменить?");
-            System.out.println("1. 📌 Название");
-            System.out.println("2. 📝 Описание");
-            System.out.println("3. 🏷️  Статус");
-            System.out.println("4. ⚡ Приоритет");
-            System.out.println("5. ⏰ Дедлайн");
-            System.out.println("6. ✏️  Все поля");
-            System.out.println("0. ↩️  Отмена");
-            System.out.print("Выберите: ");
+        // Карты читаются оптимистичными читателями во время записи (см. execute)
+        private final Map<Long, Postings> postings = new ConcurrentHashMap<>();
+        private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+        // Задача по ID: по ней проверяются кандидаты по описанию
+        private final IntFunction<Task> tasks;
+        private long livePostings;
+        private long stalePostings;
+        private volatile boolean built;
+        // Счетчик изменений: по нему видно, нужно ли переписать файл индекса
+        private long modifications;
+
+        SearchIndex(IntFunction<Task> tasks) {
+            this.tasks = tasks;
+        }
 
-            String choice = scanner.nextLine().trim();
+        static String normalize(String text) {
+            return text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        }
 
-            switch (choice) {
-                case "1" -> {
-                    System.out.print("Новое название: ");
-                    String newTitle = scanner.nextLine().trim();
-                    if (!newTitle.isEmpty()) {
-                        task.setTitle(newTitle);
-                    }
-                }
-                case "2" -> {
-                    System.out.print("Новое описание: ");
-                    task.setDescription(scanner.nextLine().trim());
-                }
-                case "3" -> {
-                    Status newStatus = selectStatus();
-                    task.setStatus(newStatus);
-                }
-                case "4" -> {
-                    Priority newPriority = selectPriority();
-                    task.setPriority(newPriority);
-                }
-                case "5" -> {
-                    LocalDate newDeadline = selectDeadline();
-                    task.setDeadline(newDeadline);
-                }
-                case "6" -> {
-                    System.out.print("Новое название: ");
-                    String newTitle = scanner.nextLine().trim();
-                    if (!newTitle.isEmpty()) {
-                        task.setTitle(newTitle);
-                    }
+        public boolean isBuilt() {
+            return built;
+        }
 
-                    System.out.print("Новое описание: ");
-                    task.setDescription(scanner.nextLine().trim());
+        public long modifications() {
+            return modifications;
+        }
 
-                    task.setStatus(selectStatus());
-                    task.setPriority(selectPriority());
-                    task.setDeadline(selectDeadline());
-                }
-                case "0" -> {
-                    System.out.println("✖️ Редактирование отменено.");
-                    return;
-                }
-                default -> {
-                    System.out.println("❌ Неверный выбор.");
-                    return;
-                }
+        public void build(Collection<Task> tasks) {
+            clear();
+            built = true;
+            for (Task task : tasks) {
+                add(task);
             }
+        }
 
-            System.out.println("\n✅ Задача успешно обновлена!");
-            System.out.println(task);
+        public void add(Task task) {
+            if (!built) return;
+            remove(task);
+            String title = normalize(task.getTitle());
+            int added = addGrams(title, 0, task.getId())
+                    + addGrams(normalize(task.getDescription()), DESCRIPTION, task.getId());
+            entries.put(task.getId(), new Entry(title, stamp(task), added));
+            livePostings += added;
+            modifications++;
+        }
 
-        } catch (NumberFormatException e) {
-            System.out.println("❌ Неверный формат ID.");
+        public void remove(Task task) {
+            if (!built) return;
+            remove(task.getId());
         }
-    }
 
-    private void deleteTask() {
-        if (tasks.isEmpty()) {
-            System.out.println("\n📭 Нет задач для удаления.");
-            return;
+        private void remove(int id) {
+            Entry entry = entries.remove(id);
+            if (entry == null) return;
+            modifications++;
+            livePostings -= entry.postings;
+            stalePostings += entry.postings;
+            if (stalePostings > livePostings + 1024) {
+                compact();
+            }
         }
 
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("                 УДАЛЕНИЕ ЗАДАЧИ");
-        System.out.println("═══════════════════════════════════════════════");
+        // Сбрасывает индекс; он будет построен заново при следующем поиске
+        public void clear() {
+            postings.clear();
+            entries.clear();
+            livePostings = 0;
+            stalePostings = 0;
+            built = false;
+            modifications++;
+        }
 
-        showAllTasks();
-        System.out.print("\nВведите ID задачи для удаления: ");
+        // Приводит прочитанный из файла индекс к текущим задачам: заново
+        // индексируются только задачи с другой отметкой updatedAt, записи
+        // исчезнувших задач снимаются. Возвращает число исправленных записей.
+        public int reconcile(Collection<Task> tasks) {
+            int fixed = 0;
+            BitSet present = new BitSet();
+            for (Task task : tasks) {
+                present.set(task.getId());
+                Entry entry = entries.get(task.getId());
+                if (entry == null || entry.stamp != stamp(task)) {
+                    add(task);
+                    fixed++;
+                }
+            }
+            List<Integer> gone = new ArrayList<>();
+            for (Integer id : entries.keySet()) {
+                if (!present.get(id)) gone.add(id);
+            }
+            for (int id : gone) {
+                remove(id);
+            }
+            return fixed + gone.size();
+        }
 
-        try {
-            int id = Integer.parseInt(scanner.nextLine().trim());
-            Task task = findTaskById(id);
+        // Верхняя граница числа задач, которые найдет search(query)
+        public int estimate(String query) {
+            String q = normalize(query);
+            if (q.isEmpty()) return 0;
+            long estimate = 0;
+            for (long field : new long[] {0, DESCRIPTION}) {
+                for (Postings list : candidates(q, field)) estimate += list.size;
+            }
+            return (int) Math.min(estimate, entries.size());
+        }
 
-            if (task == null) {
-                System.out.println("❌ Задача с ID " + id + " не найдена.");
-                return;
+        // Возвращает задачи, отсортированные по релевантности:
+        // совпадение целого слова в названии > подстрока в названии > описание
+        public List<Task> search(String query) {
+            String q = normalize(query);
+            if (q.isEmpty()) return new ArrayList<>();
+
+            Map<Integer, Integer> scores = new HashMap<>();
+            BitSet seen = new BitSet();
+            for (Postings list : candidates(q, 0)) {
+                int[] ids = list.ids;
+                for (int i = 0, size = list.size(ids); i < size; i++) {
+                    int id = ids[i];
+                    if (seen.get(id)) continue;
+                    seen.set(id);
+                    Entry entry = entries.get(id);
+                    int score = entry != null ? 2 * score(entry.title, q) : 0;
+                    if (score > 0) scores.put(id, score);
+                }
+            }
+            seen.clear();
+            for (Postings list : candidates(q, DESCRIPTION)) {
+                int[] ids = list.ids;
+                for (int i = 0, size = list.size(ids); i < size; i++) {
+                    int id = ids[i];
+                    if (seen.get(id)) continue;
+                    seen.set(id);
+                    Task task = entries.containsKey(id) ? tasks.apply(id) : null;
+                    int score = task != null ? score(normalize(task.getDescription()), q) : 0;
+                    if (score > 0) scores.merge(id, score, Integer::sum);
+                }
             }
 
-            System.out.println("\nВы уверены, что хотите удалить эту задачу?");
-            System.out.println(task);
-            System.out.print("\n(д/н): ");
+            List<Task> found = new ArrayList<>(scores.size());
+            for (int id : scores.keySet()) {
+                Task task = tasks.apply(id);
+                if (task != null) found.add(task);
+            }
+            found.sort((t1, t2) -> {
+                int scoreCompare = Integer.compare(scores.get(t2.getId()), scores.get(t1.getId()));
+                if (scoreCompare != 0) return scoreCompare;
+                return Integer.compare(t1.getId(), t2.getId());
+            });
+            return found;
+        }
 
-            String confirm = scanner.nextLine().trim().toLowerCase();
-            if (confirm.equals("д") || confirm.equals("да") || confirm.equals("y") || confirm.equals("yes")) {
-                tasks.remove(task);
-                System.out.println("✅ Задача успешно удалена!");
-            } else {
-                System.out.println("✖️ Удаление отменено.");
+        // Списки, в которых могут быть задачи с q в поле field. Для запроса
+        // не короче триграммы достаточно самого короткого списка его
+        // триграмм; более короткий запрос ищется среди ключей, которые его
+        // содержат (граничные символы в запрос не попадают).
+        private List<Postings> candidates(String q, long field) {
+            if (q.length() >= GRAM) {
+                Postings shortest = null;
+                for (int i = 0; i + GRAM <= q.length(); i++) {
+                    Postings list = postings.get(field | gram(q, i));
+                    if (list == null) return List.of();
+                    if (shortest == null || list.size < shortest.size) shortest = list;
+                }
+                return List.of(shortest);
             }
+            List<Postings> lists = new ArrayList<>();
+            char[] chars = new char[GRAM];
+            for (Map.Entry<Long, Postings> entry : postings.entrySet()) {
+                long key = entry.getKey();
+                if ((key & DESCRIPTION) != field) continue;
+                chars[0] = (char) (key >>> 32);
+                chars[1] = (char) (key >>> 16);
+                chars[2] = (char) key;
+                if (contains(chars, q)) lists.add(entry.getValue());
+            }
+            return lists;
+        }
 
-        } catch (NumberFormatException e) {
-            System.out.println("❌ Неверный формат ID.");
+        private static boolean contains(char[] chars, String q) {
+            for (int i = 0; i + q.length() <= chars.length; i++) {
+                boolean match = true;
+                for (int j = 0; j < q.length() && match; j++) {
+                    match = chars[i + j] == q.charAt(j);
+                }
+                if (match) return true;
+            }
+            return false;
         }
-    }
 
-    // ==================== ФИЛЬТРАЦИЯ И ПОИСК ====================
+        // 0 - нет совпадения, 1 - подстрока, 2 - целое слово
+        private static int score(String text, String q) {
+            int pos = text.indexOf(q);
+            if (pos < 0) return 0;
+            boolean wordStart = pos == 0 || !Character.isLetterOrDigit(text.charAt(pos - 1));
+            int end = pos + q.length();
+            boolean wordEnd = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+            return wordStart && wordEnd ? 2 : 1;
+        }
 
-    private void filterTasks() {
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("                ФИЛЬТРАЦИЯ ЗАДАЧ");
-        System.out.println("═══════════════════════════════════════════════");
+        // Три символа триграммы, упакованные в long
+        private static long gram(String text, int i) {
+            return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+
+        private static long stamp(Task task) {
+            LocalDateTime updatedAt = task.getUpdatedAt();
+            return updatedAt.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + updatedAt.getNano();
+        }
+
+        private int addGrams(String text, long field, int id) {
+            if (text.isEmpty()) return 0;
+            String padded = START + text + END;
+            int added = 0;
+            for (int i = 0; i + GRAM <= padded.length(); i++) {
+                if (postings.computeIfAbsent(field | gram(padded, i), k -> new Postings(4)).add(id)) added++;
+            }
+            return added;
+        }
+
+        // Пересобирает списки без устаревших ID. Описания в индексе не
+        // хранятся, поэтому их триграммы берутся у задач: описания из снимка
+        // читаются через общий кэш и в памяти не остаются
+        private void compact() {
+            postings.clear();
+            livePostings = 0;
+            stalePostings = 0;
+            Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Entry> entry = it.next();
+                int id = entry.getKey();
+                Task task = tasks.apply(id);
+                if (task == null) {
+                    it.remove();
+                    continue;
+                }
+                String title = entry.getValue().title;
+                int added = addGrams(title, 0, id) + addGrams(normalize(task.getDescription()), DESCRIPTION, id);
+                entry.setValue(new Entry(title, entry.getValue().stamp, added));
+                livePostings += added;
+            }
+        }
+
+        // Формат: MAGIC, VERSION, записи (ID, отметка, название), затем
+        // списки (ключ, длина, ID разностями в varint по возрастанию)
+        public void write(Path file) throws IOException {
+            Path tmp = Paths.get(file + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+                    byte[] title = entry.getValue().title.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(entry.getKey());
+                    out.writeLong(entry.getValue().stamp);
+                    out.writeInt(entry.getValue().postings);
+                    out.writeInt(title.length);
+                    out.write(title);
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<Long, Postings> entry : postings.entrySet()) {
+                    Postings list = entry.getValue();
+                    int[] ids = Arrays.copyOf(list.ids, list.size);
+                    Arrays.sort(ids);
+                    out.writeLong(entry.getKey());
+                    out.writeInt(ids.length);
+                    int previous = 0;
+                    for (int id : ids) {
+                        writeVarint(out, id - previous);
+                        previous = id;
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        public static SearchIndex read(Path file, IntFunction<Task> tasks) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != MAGIC) throw new IOException("не файл текстового индекса");
+                int version = in.readInt();
+                if (version != VERSION) throw new IOException("неподдерживаемая версия индекса: " + version);
+                SearchIndex index = new SearchIndex(tasks);
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    int id = in.readInt();
+                    long stamp = in.readLong();
+                    int added = in.readInt();
+                    byte[] title = new byte[in.readInt()];
+                    in.readFully(title);
+                    index.entries.put(id, new Entry(new String(title, StandardCharsets.UTF_8), stamp, added));
+                    index.livePostings += added;
+                }
+                int listCount = in.readInt();
+                long total = 0;
+                for (int i = 0; i < listCount; i++) {
+                    long key = in.readLong();
+                    int size = in.readInt();
+                    Postings list = new Postings(size);
+                    int id = 0;
+                    for (int j = 0; j < size; j++) {
+                        id += readVarint(in);
+                        list.ids[j] = id;
+                    }
+                    list.size = size;
+                    index.postings.put(key, list);
+                    total += size;
+                }
+                index.stalePostings = Math.max(0, total - index.livePostings);
+                index.built = true;
+                return index;
+            }
+        }
+
+        private static void writeVarint(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarint(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("неверное число в индексе");
+        }
+    }
+
+    // Счетчики для экрана статистики, обновляемые при каждом изменении задач
+    static class TaskStatistics {
+        private final int[] statusCounts = new int[Status.values().length];
+        private final int[] priorityCounts = new int[Priority.values().length];
+        // Невыполненные задачи в порядке создания
+        private final TreeSet<Task> unfinished = new TreeSet<>(
+                Comparator.comparing(Task::getCreatedAt).thenComparingInt(Task::getId));
+        // Количество невыполненных задач по дате дедлайна (для подсчета просроченных);
+        // читается без блокировки (см. execute), поэтому карта конкурентная
+        private final ConcurrentSkipListMap<LocalDate, Integer> deadlines = new ConcurrentSkipListMap<>();
+        // Просроченные на день overdueDay. Счетчик сдвигается на новый день
+        // при записи (advance), а читатели добирают к нему только корзины
+        // дней, прошедших с тех пор, и сами ничего не меняют
+        private volatile LocalDate overdueDay = LocalDate.MIN;
+        private volatile int overdueCount;
+
+        public void add(Task task) {
+            statusCounts[task.getStatus().ordinal()]++;
+            priorityCounts[task.getPriority().ordinal()]++;
+            if (task.getStatus() != Status.DONE) {
+                unfinished.add(task);
+                if (task.getDeadline() != null) {
+                    deadlines.merge(task.getDeadline(), 1, Integer::sum);
+                    if (task.getDeadline().isBefore(overdueDay)) overdueCount++;
+                }
+            }
+        }
+
+        public void remove(Task task) {
+            statusCounts[task.getStatus().ordinal()]--;
+            priorityCounts[task.getPriority().ordinal()]--;
+            if (task.getStatus() != Status.DONE) {
+                unfinished.remove(task);
+                if (task.getDeadline() != null) {
+                    deadlines.computeIfPresent(task.getDeadline(), (d, count) -> count > 1 ? count - 1 : null);
+                    if (task.getDeadline().isBefore(overdueDay)) overdueCount--;
+                }
+            }
+        }
+
+        public void clear() {
+            Arrays.fill(statusCounts, 0);
+            Arrays.fill(priorityCounts, 0);
+            unfinished.clear();
+            deadlines.clear();
+            overdueDay = LocalDate.MIN;
+            overdueCount = 0;
+        }
+
+        public int count(Status status) {
+            return statusCounts[status.ordinal()];
+        }
+
+        public int count(Priority priority) {
+            return priorityCounts[priority.ordinal()];
+        }
+
+        // Просроченные: невыполненные задачи с дедлайном раньше сегодняшнего дня.
+        // В день последнего сдвига - готовый счетчик, позже к нему добавляются
+        // корзины дней, прошедших после сдвига
+        public int overdue(LocalDate today) {
+            LocalDate day = overdueDay;
+            if (today.equals(day)) return overdueCount;
+            if (today.isBefore(day)) return sum(deadlines.headMap(today, false));
+            return overdueCount + sum(deadlines.subMap(day, true, today, false));
+        }
+
+        // Сдвигает счетчик просроченных на today; вызывается при записи
+        public void advance(LocalDate today) {
+            if (today.equals(overdueDay)) return;
+            overdueCount = overdue(today);
+            overdueDay = today;
+        }
+
+        private static int sum(Map<LocalDate, Integer> days) {
+            int count = 0;
+            for (int c : days.values()) {
+                count += c;
+            }
+            return count;
+        }
+
+        // Первые limit невыполненных задач по дате создания
+        public List<Task> oldestUnfinished(int limit) {
+            List<Task> result = new ArrayList<>(limit);
+            for (Task task : unfinished) {
+                if (result.size() == limit) break;
+                result.add(task);
+            }
+            return result;
+        }
+    }
+
+    // Параллельная загрузка tasks.csv: файл отображается в память, делится на
+    // куски по границам строк, и куски разбираются параллельно без split()
+    // и LocalDateTime.parse(). Результаты склеиваются в исходном порядке.
+    static class CsvTaskLoader {
+        private static final int MIN_CHUNK = 1 << 20;
+        // Файлы меньше этого размера читаются в память, а не отображаются
+        private static final long MAP_THRESHOLD = 16L << 20;
+        private static final byte[][] STATUS_NAMES = names(Status.values());
+        private static final byte[][] PRIORITY_NAMES = names(Priority.values());
+
+        static class ParseError {
+            final long line;
+            final String text;
+            final String reason;
+
+            ParseError(long line, String text, String reason) {
+                this.line = line;
+                this.text = text;
+                this.reason = reason;
+            }
+        }
+
+        static class Result {
+            final List<Task> tasks = new ArrayList<>();
+            final List<ParseError> errors = new ArrayList<>();
+            int maxId;
+            long lines;
+        }
+
+        private final Charset charset;
+
+        CsvTaskLoader(Charset charset) {
+            this.charset = charset;
+        }
+
+        public Result load(Path path) throws IOException {
+            List<ByteBuffer> chunks = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                // Первая строка - заголовок
+                long start = nextLineStart(channel, 0, size);
+                long chunkSize = Math.max(MIN_CHUNK,
+                        size / (Runtime.getRuntime().availableProcessors() * 4L) + 1);
+                chunkSize = Math.min(chunkSize, Integer.MAX_VALUE);
+
+                while (start < size) {
+                    long end = Math.min(size, start + chunkSize);
+                    if (end < size) {
+                        end = nextLineStart(channel, end, size);
+                    }
+                    chunks.add(read(channel, start, end - start, size));
+                    start = end;
+                }
+            }
+
+            List<Result> parts = chunks.parallelStream()
+                    .map(this::parseChunk)
+                    .collect(java.util.stream.Collectors.toList());
+
+            Result result = new Result();
+            long lineOffset = 1; // заголовок
+            for (Result part : parts) {
+                result.tasks.addAll(part.tasks);
+                for (ParseError error : part.errors) {
+                    result.errors.add(new ParseError(lineOffset + error.line, error.text, error.reason));
+                }
+                result.maxId = Math.max(result.maxId, part.maxId);
+                lineOffset += part.lines;
+            }
+            result.lines = lineOffset;
+            return result;
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, long length, long fileSize) throws IOException {
+            if (fileSize >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) break;
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        // Позиция сразу после ближайшего '\n' начиная с from (или конец файла)
+        private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long pos = from;
+            while (pos < size) {
+                buffer.clear();
+                int n = channel.read(buffer, pos);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (buffer.get(i) == '\n') return pos + i + 1;
+                }
+                pos += n;
+            }
+            return size;
+        }
+
+        private Result parseChunk(ByteBuffer chunk) {
+            Result result = new Result();
+            byte[] line = new byte[256];
+            int[] fields = new int[9];
+            int limit = chunk.limit();
+            int start = 0;
+
+            while (start < limit) {
+                int end = start;
+                while (end < limit && chunk.get(end) != '\n') end++;
+                int next = end + 1;
+                if (end > start && chunk.get(end - 1) == '\r') end--;
+
+                int length = end - start;
+                if (line.length < length) line = new byte[Math.max(length, line.length * 2)];
+                chunk.get(start, line, 0, length);
+                result.lines++;
+
+                try {
+                    Task task = parseLine(line, length, fields);
+                    if (task != null) {
+                        result.tasks.add(task);
+                        result.maxId = Math.max(result.maxId, task.getId());
+                    }
+                } catch (Exception e) {
+                    result.errors.add(new ParseError(result.lines,
+                            new String(line, 0, length, charset), e.getMessage()));
+                }
+                start = next;
+            }
+            return result;
+        }
+
+        // Разбирает строку из 8 полей через ';'; возвращает null, если полей меньше
+        private Task parseLine(byte[] line, int length, int[] fields) {
+            int count = 0;
+            fields[count++] = 0;
+            for (int i = 0; i < length && count < 9; i++) {
+                if (line[i] == ';') fields[count++] = i + 1;
+            }
+            if (count < 8) return null;
+            if (count == 8) fields[8] = length + 1;
+
+            int id = parseInt(line, fields[0], fields[1] - 1);
+            String title = new String(line, fields[1], fields[2] - 1 - fields[1], charset);
+            String description = new String(line, fields[2], fields[3] - 1 - fields[2], charset);
+            Status status = Status.values()[match(STATUS_NAMES, line, fields[3], fields[4] - 1)];
+            Priority priority = Priority.values()[match(PRIORITY_NAMES, line, fields[4], fields[5] - 1)];
+            LocalDate deadline = fields[6] - 1 == fields[5] ? null : parseDate(line, fields[5], fields[6] - 1);
+            LocalDateTime createdAt = parseDateTime(line, fields[6], fields[7] - 1);
+            LocalDateTime updatedAt = parseDateTime(line, fields[7], fields[8] - 1);
+
+            return new Task(id, title, description, status, priority, deadline, createdAt, updatedAt);
+        }
+
+        private static int parseInt(byte[] b, int from, int to) {
+            if (from >= to || to - from > 10) throw invalid(b, from, to, "число");
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) throw invalid(b, from, to, "число");
+                value = value * 10 + digit;
+            }
+            if (value > Integer.MAX_VALUE) throw invalid(b, from, to, "число");
+            return (int) value;
+        }
+
+        private static int match(byte[][] names, byte[] b, int from, int to) {
+            for (int i = 0; i < names.length; i++) {
+                if (Arrays.equals(names[i], 0, names[i].length, b, from, to)) return i;
+            }
+            throw invalid(b, from, to, "значение перечисления");
+        }
+
+        // yyyy-MM-dd
+        private static LocalDate parseDate(byte[] b, int from, int to) {
+            if (to - from != 10 || b[from + 4] != '-' || b[from + 7] != '-') throw invalid(b, from, to, "дата");
+            return LocalDate.of(digits(b, from, 4), digits(b, from + 5, 2), digits(b, from + 8, 2));
+        }
+
+        // yyyy-MM-ddTHH:mm[:ss[.fffffffff]]
+        private static LocalDateTime parseDateTime(byte[] b, int from, int to) {
+            int length = to - from;
+            if (length < 16 || b[from + 10] != 'T' || b[from + 13] != ':') throw invalid(b, from, to, "дата и время");
+            LocalDate date = parseDate(b, from, from + 10);
+            int hour = digits(b, from + 11, 2);
+            int minute = digits(b, from + 14, 2);
+            int second = 0;
+            int nano = 0;
+            if (length > 16) {
+                if (length < 19 || b[from + 16] != ':') throw invalid(b, from, to, "дата и время");
+                second = digits(b, from + 17, 2);
+                if (length > 19) {
+                    int fraction = length - 20;
+                    if (b[from + 19] != '.' || fraction < 1 || fraction > 9) throw invalid(b, from, to, "дата и время");
+                    nano = digits(b, from + 20, fraction);
+                    for (int i = fraction; i < 9; i++) nano *= 10;
+                }
+            }
+            return LocalDateTime.of(date, LocalTime.of(hour, minute, second, nano));
+        }
+
+        private static int digits(byte[] b, int from, int count) {
+            int value = 0;
+            for (int i = from; i < from + count; i++) {
+                int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) throw invalid(b, from, from + count, "число");
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private static IllegalArgumentException invalid(byte[] b, int from, int to, String what) {
+            return new IllegalArgumentException("Неверное поле (" + what + "): '"
+                    + new String(b, from, Math.max(0, to - from), StandardCharsets.ISO_8859_1) + "'");
+        }
+
+        private static byte[][] names(Enum<?>[] values) {
+            byte[][] names = new byte[values.length][];
+            for (int i = 0; i < values.length; i++) {
+                names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+            }
+            return names;
+        }
+    }
+
+    // Двоичный снимок списка задач (раздел tasks.d) для быстрого запуска.
+    //
+    // Формат (big-endian):
+    //   заголовок, 48 байт: magic, версия, число записей, nextId,
+    //                       длина кучи строк (long), CRC32 записей, CRC32 кучи,
+    //                       поколение и длина файла описаний (long)
+    //   записи фиксированной длины RECORD_SIZE, по одной на задачу
+    //   куча строк: названия в UTF-8 подряд
+    // Описания лежат в отдельном файле <имя>.<поколение>.desc (UTF-8 подряд):
+    // он отображается в память и читается по одному описанию при обращении.
+    // У каждой записи файла снимка свое поколение, поэтому файл описаний,
+    // который еще отображен в память, никогда не перезаписывается.
+    static class TaskSnapshot {
+        private static final int MAGIC = 0x54504231; // "TPB1"
+        private static final int VERSION = 2;
+        private static final int HEADER_SIZE = 48;
+        // id, статус, приоритет, выравнивание, дедлайн (epoch day),
+        // создано и обновлено (epoch second + nano), название и описание (offset + length)
+        private static final int RECORD_SIZE = 4 + 1 + 1 + 2 + 4 + 12 + 12 + 12 + 12;
+        private static final int NO_DEADLINE = Integer.MIN_VALUE;
+        private static final long MAP_THRESHOLD = 16L << 20;
+        private static final AtomicLong GENERATIONS = new AtomicLong(System.currentTimeMillis());
+
+        static class Result {
+            final List<Task> tasks;
+            final int nextId;
+
+            Result(List<Task> tasks, int nextId) {
+                this.tasks = tasks;
+                this.nextId = nextId;
+            }
+        }
+
+        // Пишет снимок во временный файл и атомарно заменяет им target;
+        // файлы описаний прежних поколений после этого удаляются
+        static void write(Path target, List<Task> tasks, int nextId) throws IOException {
+            Path tmp = Paths.get(target + ".tmp");
+            long generation = GENERATIONS.incrementAndGet();
+            Path descriptionsFile = descriptionsFile(target, generation);
+            long heapStart = HEADER_SIZE + (long) tasks.size() * RECORD_SIZE;
+            CRC32 recordsCrc = new CRC32();
+            CRC32 heapCrc = new CRC32();
+
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 FileChannel descriptionsChannel = FileChannel.open(descriptionsFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 2048);
+                ByteBuffer heap = ByteBuffer.allocate(128 * 1024);
+                ByteBuffer descriptions = ByteBuffer.allocate(128 * 1024);
+                long recordsPos = HEADER_SIZE;
+                long heapPos = heapStart;
+                long heapLength = 0;
+                long descriptionsPos = 0;
+                long descriptionsLength = 0;
+
+                for (Task task : tasks) {
+                    byte[] title = task.getTitle().getBytes(StandardCharsets.UTF_8);
+                    // Незагруженное описание копируется байтами, без декодирования
+                    DescriptionHeap.Ref ref = task.getDescriptionRef();
+                    byte[] description = ref != null ? ref.bytes() : task.getDescription().getBytes(StandardCharsets.UTF_8);
+
+                    if (records.remaining() < RECORD_SIZE) {
+                        recordsPos += flush(channel, records, recordsPos, recordsCrc);
+                    }
+                    records.putInt(task.getId());
+                    records.put((byte) task.getStatus().ordinal());
+                    records.put((byte) task.getPriority().ordinal());
+                    records.putShort((short) 0);
+                    records.putInt(task.getDeadline() != null ? (int) task.getDeadline().toEpochDay() : NO_DEADLINE);
+                    putDateTime(records, task.getCreatedAt());
+                    putDateTime(records, task.getUpdatedAt());
+                    records.putLong(heapLength).putInt(title.length);
+                    records.putLong(descriptionsLength).putInt(description.length);
+
+                    heapLength += title.length;
+                    descriptionsLength += description.length;
+
+                    heapPos = append(channel, heap, heapPos, heapCrc, title);
+                    descriptionsPos = append(descriptionsChannel, descriptions, descriptionsPos, null, description);
+                }
+                flush(channel, records, recordsPos, recordsCrc);
+                flush(channel, heap, heapPos, heapCrc);
+                flush(descriptionsChannel, descriptions, descriptionsPos, null);
+                if (descriptionsLength > Integer.MAX_VALUE) throw new IOException("описания раздела больше 2 ГБ");
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(tasks.size()).putInt(nextId)
+                        .putLong(heapLength)
+                        .putInt((int) recordsCrc.getValue())
+                        .putInt((int) heapCrc.getValue())
+                        .putLong(generation)
+                        .putLong(descriptionsLength);
+                flush(channel, header, 0, new CRC32());
+                descriptionsChannel.force(true);
+                channel.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(descriptionsFile);
+                throw e;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteDescriptions(target, generation);
+        }
+
+        // Удаляет снимок вместе с его файлами описаний
+        static void delete(Path target) throws IOException {
+            Files.deleteIfExists(target);
+            deleteDescriptions(target, -1);
+        }
+
+        // Прежние поколения больше не нужны новым объектам Task. Если файл
+        // еще отображен в память и система не дает его удалить (Windows),
+        // он удалится при следующей записи этого снимка.
+        private static void deleteDescriptions(Path target, long keep) throws IOException {
+            Path kept = descriptionsFile(target, keep).getFileName();
+            Path dir = target.toAbsolutePath().getParent();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, baseName(target) + ".*.desc")) {
+                for (Path file : files) {
+                    if (file.getFileName().equals(kept)) continue;
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // попробуем в следующий раз
+                    }
+                }
+            }
+        }
+
+        private static Path descriptionsFile(Path target, long generation) {
+            return target.resolveSibling(baseName(target) + "." + Long.toHexString(generation) + ".desc");
+        }
+
+        private static String baseName(Path target) {
+            String name = target.getFileName().toString();
+            return name.endsWith(".bin") ? name.substring(0, name.length() - 4) : name;
+        }
+
+        // Строка дописывается в буфер; буфер, в который она не помещается,
+        // сначала сбрасывается в канал. Возвращает новую позицию начала буфера в файле.
+        private static long append(FileChannel channel, ByteBuffer buffer, long position, CRC32 crc, byte[] bytes) throws IOException {
+            if (buffer.remaining() < bytes.length) {
+                position += flush(channel, buffer, position, crc);
+            }
+            if (buffer.remaining() < bytes.length) {
+                // Строка больше буфера - пишем ее напрямую
+                ByteBuffer direct = ByteBuffer.wrap(bytes);
+                position += flush(channel, direct.position(bytes.length), position, crc);
+            } else {
+                buffer.put(bytes);
+            }
+            return position;
+        }
+
+        // Буфер после заполнения (в режиме записи) пишется в канал с позиции position;
+        // crc = null - без контрольной суммы
+        private static int flush(FileChannel channel, ByteBuffer buffer, long position, CRC32 crc) throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            if (crc != null) crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            buffer.clear();
+            return length;
+        }
+
+        static Result read(Path path) throws IOException {
+            ByteBuffer data;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_SIZE) throw new IOException("файл снимка поврежден (слишком короткий)");
+                if (size > Integer.MAX_VALUE) throw new IOException("файл снимка больше 2 ГБ");
+                if (size >= MAP_THRESHOLD) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } else {
+                    data = ByteBuffer.allocate((int) size);
+                    while (data.hasRemaining() && channel.read(data) >= 0) {
+                        // читаем целиком
+                    }
+                    data.flip();
+                }
+            }
+
+            if (data.getInt(0) != MAGIC) throw new IOException("неизвестный формат снимка");
+            int version = data.getInt(4);
+            if (version != VERSION) throw new IOException("неподдерживаемая версия снимка: " + version);
+            int count = data.getInt(8);
+            int nextId = data.getInt(12);
+            long heapLength = data.getLong(16);
+            long heapStart = HEADER_SIZE + (long) count * RECORD_SIZE;
+            if (count < 0 || heapStart + heapLength != data.limit()) {
+                throw new IOException("файл снимка поврежден (неверный размер)");
+            }
+            if (crc(data, HEADER_SIZE, heapStart) != data.getInt(24)
+                    || crc(data, heapStart, data.limit()) != data.getInt(28)) {
+                throw new IOException("файл снимка поврежден (не совпадает контрольная сумма)");
+            }
+
+            // Файл описаний не проверяется по CRC: для этого его пришлось бы
+            // прочитать целиком, а описания читаются по одному при обращении
+            DescriptionHeap descriptions = null;
+            if (data.getLong(40) > 0) {
+                descriptions = DescriptionHeap.map(descriptionsFile(path, data.getLong(32)), data.getLong(40));
+            }
+
+            Status[] statuses = Status.values();
+            Priority[] priorities = Priority.values();
+            List<Task> tasks = new ArrayList<>(count);
+            byte[] strings = new byte[(int) heapLength];
+            data.get((int) heapStart, strings);
+
+            for (int i = 0; i < count; i++) {
+                int pos = HEADER_SIZE + i * RECORD_SIZE;
+                int id = data.getInt(pos);
+                Status status = statuses[data.get(pos + 4)];
+                Priority priority = priorities[data.get(pos + 5)];
+                int deadlineDay = data.getInt(pos + 8);
+                LocalDate deadline = deadlineDay == NO_DEADLINE ? null : LocalDate.ofEpochDay(deadlineDay);
+                LocalDateTime createdAt = getDateTime(data, pos + 12);
+                LocalDateTime updatedAt = getDateTime(data, pos + 24);
+                String title = new String(strings, (int) data.getLong(pos + 36), data.getInt(pos + 44), StandardCharsets.UTF_8);
+                long descriptionOffset = data.getLong(pos + 48);
+                int descriptionLength = data.getInt(pos + 56);
+
+                Task task = new Task(id, title, "", status, priority, deadline, createdAt, updatedAt);
+                if (descriptionLength > 0) {
+                    task.setDescriptionRef(descriptions.ref(descriptionOffset, descriptionLength));
+                }
+                tasks.add(task);
+            }
+            return new Result(tasks, nextId);
+        }
+
+        private static int crc(ByteBuffer data, long from, long to) {
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate().limit((int) to).position((int) from));
+            return (int) crc.getValue();
+        }
+
+        private static void putDateTime(ByteBuffer buffer, LocalDateTime dateTime) {
+            buffer.putLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(dateTime.getNano());
+        }
+
+        private static LocalDateTime getDateTime(ByteBuffer buffer, int pos) {
+            return LocalDateTime.ofEpochSecond(buffer.getLong(pos), buffer.getInt(pos + 8), ZoneOffset.UTC);
+        }
+    }
+
+    // Файл описаний раздела снимка, отображенный в память. Задача хранит только
+    // смещение и длину описания (Ref); строка декодируется при обращении и
+    // попадает в общий LRU-кэш на taskplanner.descriptionCache описаний.
+    static class DescriptionHeap {
+        private static final int CACHE_SIZE = Integer.getInteger("taskplanner.descriptionCache", 10_000);
+        private static final Map<Ref, String> CACHE = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Ref, String> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        // Ссылки сравниваются по файлу (по экземпляру) и смещению
+        record Ref(DescriptionHeap heap, int offset, int length) {
+            String load() {
+                synchronized (CACHE) {
+                    String cached = CACHE.get(this);
+                    if (cached != null) {
+                        METRICS.add(Metrics.Counter.DESCRIPTION_CACHE_HITS, 1);
+                        return cached;
+                    }
+                }
+                String description = new String(bytes(), StandardCharsets.UTF_8);
+                METRICS.add(Metrics.Counter.DESCRIPTION_CACHE_MISSES, 1);
+                synchronized (CACHE) {
+                    CACHE.put(this, description);
+                }
+                return description;
+            }
+
+            byte[] bytes() {
+                byte[] bytes = new byte[length];
+                heap.data.get(offset, bytes);
+                return bytes;
+            }
+        }
+
+        // Только абсолютные чтения: буфер разделяют все потоки
+        private final ByteBuffer data;
+
+        private DescriptionHeap(ByteBuffer data) {
+            this.data = data;
+        }
+
+        static DescriptionHeap map(Path file, long expectedSize) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() != expectedSize) throw new IOException("файл описаний поврежден (неверный размер): " + file);
+                // Отображение остается действительным и после закрытия канала
+                return new DescriptionHeap(channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize));
+            }
+        }
+
+        Ref ref(long offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > data.capacity()) {
+                throw new IOException("файл снимка поврежден (описание за пределами файла описаний)");
+            }
+            return new Ref(this, (int) offset, length);
+        }
+    }
+
+    // Снимок, разбитый на разделы по месяцу дедлайна: tasks.d/ГГГГ-ММ.bin,
+    // tasks.d/none.bin для задач без дедлайна (формат файлов - TaskSnapshot)
+    // и manifest.txt со списком разделов. При сохранении переписываются только
+    // измененные разделы, при загрузке разделы читаются параллельно. Старые
+    // разделы, где все задачи выполнены, помечаются как архивные и при запуске
+    // не загружаются.
+    static class PartitionStore {
+        static final String NO_DEADLINE = "none";
+        private static final String MANIFEST = "manifest.txt";
+
+        record Partition(String key, int count, boolean archived) {}
+
+        record Manifest(int nextId, Map<String, Partition> partitions) {}
+
+        private final Path dir;
+
+        PartitionStore(Path dir) {
+            this.dir = dir;
+        }
+
+        static String key(LocalDate deadline) {
+            return deadline == null ? NO_DEADLINE : YearMonth.from(deadline).toString();
+        }
+
+        public boolean exists() {
+            return Files.exists(dir.resolve(MANIFEST));
+        }
+
+        public Manifest readManifest() throws IOException {
+            int nextId = 1;
+            Map<String, Partition> partitions = new TreeMap<>();
+            for (String line : Files.readAllLines(dir.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                if (line.startsWith("nextId=")) {
+                    nextId = Integer.parseInt(line.substring("nextId=".length()));
+                    continue;
+                }
+                String[] fields = line.split(";");
+                if (fields.length != 3) throw new IOException("неверная строка манифеста: " + line);
+                partitions.put(fields[0], new Partition(fields[0], Integer.parseInt(fields[1]), fields[2].equals("archived")));
+            }
+            return new Manifest(nextId, partitions);
+        }
+
+        // Читает разделы параллельно; результат - в порядке ID
+        public List<Task> load(Collection<String> keys) throws IOException {
+            try {
+                List<Task> tasks = keys.parallelStream()
+                        .flatMap(key -> {
+                            try {
+                                return TaskSnapshot.read(file(key)).tasks.stream();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(key + ": " + e.getMessage(), e);
+                            }
+                        })
+                        .collect(Collectors.toCollection(ArrayList::new));
+                tasks.sort(Comparator.comparingInt(Task::getId));
+                return tasks;
+            } catch (UncheckedIOException e) {
+                throw new IOException(e.getMessage(), e.getCause());
+            }
+        }
+
+        // Переписывает разделы из changed (пустой список - раздел удаляется),
+        // затем манифест. Каждый файл заменяется атомарно.
+        public long save(Map<String, List<Task>> changed, Manifest manifest) throws IOException {
+            Files.createDirectories(dir);
+            long bytes = 0;
+            for (Map.Entry<String, List<Task>> entry : changed.entrySet()) {
+                Path file = file(entry.getKey());
+                if (entry.getValue().isEmpty()) {
+                    TaskSnapshot.delete(file);
+                } else {
+                    TaskSnapshot.write(file, entry.getValue(), manifest.nextId());
+                    bytes += Files.size(file);
+                }
+            }
+
+            StringBuilder out = new StringBuilder("# Разделы снимка: месяц;задач;active|archived\n");
+            out.append("nextId=").append(manifest.nextId()).append('\n');
+            for (Partition partition : manifest.partitions().values()) {
+                out.append(partition.key()).append(';').append(partition.count()).append(';')
+                        .append(partition.archived() ? "archived" : "active").append('\n');
+            }
+            Path tmp = dir.resolve(MANIFEST + ".tmp");
+            Files.writeString(tmp, out, StandardCharsets.UTF_8);
+            Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return bytes;
+        }
+
+        private Path file(String key) {
+            return dir.resolve(key + ".bin");
+        }
+    }
+
+    // Журнал изменений (write-ahead log). Каждое изменение дописывается в конец
+    // файла, а при запуске журнал применяется поверх последнего снимка tasks.csv.
+    // Записи одной операции сбрасываются на диск вместе в commit().
+    static class TaskJournal {
+        enum SyncPolicy {
+            NONE,    // только flush, fsync делает ОС
+            BATCH,   // fsync на каждый commit()
+            ALWAYS   // fsync на каждую запись
+        }
+
+        private final File file;
+        private final SyncPolicy syncPolicy;
+        private FileOutputStream stream;
+        private BufferedWriter writer;
+        private int pending;
+        private int records;
+
+        TaskJournal(File file, SyncPolicy syncPolicy) {
+            this.file = file;
+            this.syncPolicy = syncPolicy;
+        }
+
+        // Задача пишется целиком, текстовые поля экранируются без потерь
+        // (см. TaskEncoder.appendJournal)
+        public void add(Task task) throws IOException {
+            StringBuilder sb = new StringBuilder("ADD;");
+            TaskEncoder.appendJournal(sb, task);
+            append(sb.toString());
+        }
+
+        public void edit(Task task) throws IOException {
+            StringBuilder sb = new StringBuilder("EDIT;");
+            TaskEncoder.appendJournal(sb, task);
+            append(sb.toString());
+        }
+
+        public void statusChange(Task task) throws IOException {
+            StringBuilder sb = new StringBuilder("STATUS;");
+            sb.append(task.getId()).append(';').append(task.getStatus().name()).append(';');
+            TaskEncoder.appendDateTime(sb, task.getUpdatedAt());
+            append(sb.toString());
+        }
+
+        public void delete(Task task) throws IOException {
+            append("DELETE;" + task.getId());
+        }
+
+        private void append(String record) throws IOException {
+            if (writer == null) {
+                stream = new FileOutputStream(file, true);
+                writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            }
+            writer.write(record);
+            writer.newLine();
+            pending++;
+            records++;
+            if (syncPolicy == SyncPolicy.ALWAYS) {
+                commit();
+            }
+        }
+
+        // Сбрасывает накопленные записи на диск одной группой
+        public void commit() throws IOException {
+            if (writer == null || pending == 0) return;
+            writer.flush();
+            if (syncPolicy != SyncPolicy.NONE) {
+                stream.getFD().sync();
+            }
+            pending = 0;
+        }
+
+        // Количество записей в журнале с момента последнего снимка
+        public int size() {
+            return records;
+        }
+
+        // Читает все записи журнала. Испорченные записи (например, недописанная
+        // последняя строка после сбоя) передаются обработчику ошибок.
+        public List<String> readAll() throws IOException {
+            List<String> lines = new ArrayList<>();
+            if (!file.exists()) return lines;
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) lines.add(line);
+                }
+            }
+            records = lines.size();
+            return lines;
+        }
+
+        // Очищает журнал после того, как его записи попали в новый снимок
+        public void truncate() throws IOException {
+            close();
+            new FileOutputStream(file).close();
+            records = 0;
+        }
+
+        public void close() throws IOException {
+            if (writer != null) {
+                commit();
+                writer.close();
+                writer = null;
+                stream = null;
+            }
+        }
+    }
+
+    // Отметки об удалении задач для инкрементального экспорта: ID и время
+    // удаления, по строке на задачу. Дописываются при удалении и сбрасываются
+    // на диск с той же политикой fsync, что и журнал, и раньше него: удаление,
+    // попавшее в журнал, не теряет отметку при сбое. После экспорта
+    // выгруженные отметки удаляются, поэтому в файле остаются только
+    // удаления после последнего экспорта.
+    static class TombstoneLog implements Closeable {
+        record Tombstone(int id, LocalDateTime deletedAt) {}
+
+        private final Path file;
+        private final TaskJournal.SyncPolicy syncPolicy;
+        private FileOutputStream stream;
+        private BufferedWriter writer;
+        private int pending;
+
+        TombstoneLog(Path file, TaskJournal.SyncPolicy syncPolicy) {
+            this.file = file;
+            this.syncPolicy = syncPolicy;
+        }
+
+        public void add(int id, LocalDateTime deletedAt) throws IOException {
+            if (writer == null) {
+                stream = new FileOutputStream(file.toFile(), true);
+                writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            }
+            writer.write(id + ";" + deletedAt + "\n");
+            pending++;
+            if (syncPolicy == TaskJournal.SyncPolicy.ALWAYS) {
+                commit();
+            }
+        }
+
+        public void commit() throws IOException {
+            if (writer == null || pending == 0) return;
+            writer.flush();
+            if (syncPolicy != TaskJournal.SyncPolicy.NONE) {
+                stream.getFD().sync();
+            }
+            pending = 0;
+        }
+
+        // Отметки строго позже watermark, в порядке удаления
+        public List<Tombstone> after(LocalDateTime watermark) throws IOException {
+            commit();
+            List<Tombstone> tombstones = new ArrayList<>();
+            if (!Files.exists(file)) return tombstones;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(";");
+                if (fields.length != 2) continue;
+                Tombstone tombstone = new Tombstone(Integer.parseInt(fields[0]), LocalDateTime.parse(fields[1]));
+                if (tombstone.deletedAt().isAfter(watermark)) tombstones.add(tombstone);
+            }
+            return tombstones;
+        }
+
+        // Оставляет только отметки позже watermark; null - удаляет все
+        public void prune(LocalDateTime watermark) throws IOException {
+            List<Tombstone> kept = watermark != null ? after(watermark) : List.of();
+            close();
+            if (kept.isEmpty()) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            StringBuilder out = new StringBuilder();
+            for (Tombstone tombstone : kept) {
+                out.append(tombstone.id()).append(';').append(tombstone.deletedAt()).append('\n');
+            }
+            Path tmp = Paths.get(file + ".tmp");
+            Files.writeString(tmp, out, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                commit();
+                writer.close();
+                writer = null;
+                stream = null;
+            }
+        }
+    }
+
+    // Детерминированный генератор тестовых задач: одинаковые seed и base
+    // дают одинаковые задачи. Распределения примерно как в живых данных:
+    // почти половина задач выполнена, у четверти нет дедлайна, названия в
+    // несколько слов, описания чаще короткие или пустые, изредка длинные.
+    static class TaskGenerator {
+        private static final String[] VERBS = {"Подготовить", "Проверить", "Обновить", "Согласовать",
+                "Исправить", "Написать", "Отправить", "Созвониться по", "Разобрать", "Оплатить"};
+        private static final String[] NOUNS = {"отчет", "договор", "презентацию", "ошибку", "релиз",
+                "бюджет", "документацию", "счет", "план", "ревью", "встречу", "тесты", "макет", "заявку"};
+        private static final String[] WORDS = {"клиент", "срок", "команда", "версия", "сервер", "данные",
+                "квартал", "проект", "задача", "отдел", "письмо", "таблица", "звонок", "итоги", "замечания",
+                "поставщик", "настройка", "проверка", "оплата", "согласование", "и", "по", "для", "с", "на"};
+
+        private final SplittableRandom random;
+        private final LocalDateTime base;
+
+        TaskGenerator(long seed, LocalDate base) {
+            this.random = new SplittableRandom(seed);
+            this.base = base.atTime(9, 0);
+        }
+
+        public Task next(int id) {
+            int roll = random.nextInt(100);
+            Status status = roll < 45 ? Status.DONE : roll < 70 ? Status.TODO
+                    : roll < 90 ? Status.IN_PROGRESS : Status.CANCELLED;
+            roll = random.nextInt(100);
+            Priority priority = roll < 20 ? Priority.HIGH : roll < 70 ? Priority.MEDIUM : Priority.LOW;
+
+            // Созданы за последние два года, чаще недавно
+            long ageMinutes = Math.min((long) (-Math.log(1 - random.nextDouble()) * 120 * 1440), 730L * 1440);
+            LocalDateTime createdAt = base.minusMinutes(ageMinutes);
+            LocalDateTime updatedAt = createdAt.plusMinutes((long) (ageMinutes * Math.pow(random.nextDouble(), 2)));
+
+            LocalDate deadline = null;
+            if (random.nextInt(4) > 0) {
+                // От 3 до 90 дней после создания, чаще пара недель
+                long days = (long) Math.exp(1 + 1.75 * (random.nextDouble() + random.nextDouble()));
+                deadline = createdAt.toLocalDate().plusDays(days);
+            }
+
+            return new Task(id, title(id), description(), status, priority, deadline, createdAt, updatedAt);
+        }
+
+        private String title(int id) {
+            StringBuilder title = new StringBuilder(48);
+            title.append(VERBS[random.nextInt(VERBS.length)]).append(' ').append(NOUNS[random.nextInt(NOUNS.length)]);
+            int extra = random.nextInt(4);
+            for (int i = 0; i < extra; i++) {
+                title.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextInt(3) == 0) title.append(" #").append(id);
+            return title.toString();
+        }
+
+        private String description() {
+            int roll = random.nextInt(100);
+            if (roll < 40) return "";
+            int words = roll < 95 ? 3 + random.nextInt(25) : 50 + random.nextInt(200);
+            StringBuilder description = new StringBuilder(words * 8);
+            for (int i = 0; i < words; i++) {
+                if (i > 0) description.append(' ');
+                description.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            return description.append('.').toString();
+        }
+
+        // Пишет n задач сразу в CSV и JSON в том же формате, что saveToCSV и
+        // saveToJSON; задачи в памяти не накапливаются
+        public void write(int n, Path csv, Path json) throws IOException {
+            try (TaskFileWriter csvWriter = new TaskFileWriter(csv);
+                 TaskFileWriter jsonWriter = new TaskFileWriter(json)) {
+                csvWriter.buffer().append("ID;Название;Описание;Статус;Приоритет;Дедлайн;Создано;Обновлено\n");
+                jsonWriter.buffer().append("[\n");
+                for (int id = 1; id <= n; id++) {
+                    Task task = next(id);
+                    TaskEncoder.appendCSV(csvWriter.buffer(), task);
+                    csvWriter.buffer().append('\n');
+                    csvWriter.endRecord();
+
+                    if (id > 1) jsonWriter.buffer().append(",\n");
+                    TaskEncoder.appendJSON(jsonWriter.buffer(), task);
+                    jsonWriter.endRecord();
+                }
+                jsonWriter.buffer().append(n > 0 ? "\n]\n" : "]\n");
+            }
+        }
+    }
+
+    // Язык запросов: условия через and, например
+    //   priority = HIGH and status != DONE and deadline <= month_end and title ~ отчет
+    // Поля и операторы:
+    //   status, priority      = != in (...); для priority еще < <= > >= по важности
+    //   deadline              = != < <= > >=; дата ГГГГ-ММ-ДД или ДД.ММ.ГГГГ, today,
+    //                         today+N, today-N, week_end, month_end; с датой условие
+    //                         отбрасывает задачи без дедлайна. none (без дедлайна)
+    //                         - только = и !=
+    //   title, description,   ~ (содержит), = (совпадает); text - название или описание
+    //   text
+    //   overdue               без оператора, как Task.isOverdue
+    // Условия сворачиваются в битовые маски статусов и приоритетов, границы
+    // дедлайна и список текстовых условий; test() проверяет их все за один
+    // проход. По этим же маскам и границам планировщик выбирает индекс.
+    static class TaskQuery {
+        private static final int FIELD_TITLE = 1;
+        private static final int FIELD_DESCRIPTION = 2;
+
+        private record TextCondition(int fields, boolean exact, String value) {
+            boolean test(Task task) {
+                return ((fields & FIELD_TITLE) != 0 && matches(task.getTitle()))
+                        || ((fields & FIELD_DESCRIPTION) != 0 && matches(task.getDescription()));
+            }
+
+            private boolean matches(String text) {
+                String normalized = SearchIndex.normalize(text);
+                return exact ? normalized.equals(value) : normalized.contains(value);
+            }
+        }
+
+        final String source;
+        final LocalDate today;
+        int statusMask = (1 << Status.values().length) - 1;
+        int priorityMask = (1 << Priority.values().length) - 1;
+        // Границы дедлайна в днях эпохи, включительно
+        long fromDay = Long.MIN_VALUE;
+        long toDay = Long.MAX_VALUE;
+        boolean withDeadline;
+        boolean withoutDeadline;
+        // Дни эпохи, исключенные условием deadline != дата
+        private final Set<Long> excludedDays = new HashSet<>();
+        private final List<TextCondition> texts = new ArrayList<>();
+
+        private TaskQuery(String source, LocalDate today) {
+            this.source = source;
+            this.today = today;
+        }
+
+        static TaskQuery all(LocalDate today) {
+            return new TaskQuery("", today);
+        }
+
+        // Все даты в запросе считаются от одного today
+        static TaskQuery parse(String text, LocalDate today) {
+            TaskQuery query = new TaskQuery(text.trim(), today);
+            List<String> tokens = tokenize(text);
+            int pos = 0;
+            while (pos < tokens.size()) {
+                String field = tokens.get(pos++).toLowerCase(Locale.ROOT);
+                if (field.equals("overdue")) {
+                    query.whereOverdue();
+                } else {
+                    if (pos >= tokens.size()) throw new IllegalArgumentException("после " + field + " нет оператора");
+                    String op = tokens.get(pos++).toLowerCase(Locale.ROOT);
+                    List<String> values = new ArrayList<>();
+                    if (op.equals("in")) {
+                        if (pos >= tokens.size() || !tokens.get(pos++).equals("(")) {
+                            throw new IllegalArgumentException("после in ожидается (");
+                        }
+                        while (pos < tokens.size() && !tokens.get(pos).equals(")")) {
+                            String token = tokens.get(pos++);
+                            if (!token.equals(",")) values.add(token);
+                        }
+                        if (pos++ >= tokens.size()) throw new IllegalArgumentException("не закрыта скобка после in");
+                    } else {
+                        if (pos >= tokens.size()) throw new IllegalArgumentException("после " + op + " нет значения");
+                        values.add(tokens.get(pos++));
+                    }
+                    query.where(field, op, values);
+                }
+
+                if (pos < tokens.size()) {
+                    String and = tokens.get(pos++).toLowerCase(Locale.ROOT);
+                    if (!and.equals("and") && !and.equals("и") && !and.equals("&&")) {
+                        throw new IllegalArgumentException("ожидается and, найдено: " + and);
+                    }
+                    if (pos == tokens.size()) throw new IllegalArgumentException("запрос оканчивается на and");
+                }
+            }
+            return query;
+        }
+
+        // Слова, строки в кавычках, операторы и скобки
+        private static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"' || c == '\'') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) throw new IllegalArgumentException("не закрыта кавычка");
+                    tokens.add(text.substring(i + 1, end));
+                    i = end + 1;
+                } else if (c == '(' || c == ')' || c == ',' || c == '~') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '=' || c == '<' || c == '>' || c == '!') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '=') {
+                        tokens.add(text.substring(i, i + 2));
+                        i += 2;
+                    } else if (c == '!') {
+                        throw new IllegalArgumentException("неизвестный оператор: !");
+                    } else {
+                        tokens.add(String.valueOf(c));
+                        i++;
+                    }
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                            && "()~,=<>!\"'".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    tokens.add(text.substring(start, i));
+                }
+            }
+            return tokens;
+        }
+
+        private void where(String field, String op, List<String> values) {
+            switch (field) {
+                case "status" -> {
+                    Status[] all = Status.values();
+                    int mask = 0;
+                    for (String value : values) mask |= 1 << valueOf(all, value).ordinal();
+                    statusMask &= switch (op) {
+                        case "=", "in" -> mask;
+                        case "!=" -> ~mask;
+                        default -> throw new IllegalArgumentException("оператор " + op + " не применим к status");
+                    };
+                }
+                case "priority" -> {
+                    Priority[] all = Priority.values();
+                    int mask = 0;
+                    for (String value : values) {
+                        // Важность обратна порядку объявления: HIGH - самый важный
+                        int importance = all.length - 1 - valueOf(all, value).ordinal();
+                        for (Priority priority : all) {
+                            int other = all.length - 1 - priority.ordinal();
+                            boolean match = switch (op) {
+                                case "=", "in", "!=" -> other == importance;
+                                case "<" -> other < importance;
+                                case "<=" -> other <= importance;
+                                case ">" -> other > importance;
+                                case ">=" -> other >= importance;
+                                default -> throw new IllegalArgumentException("оператор " + op + " не применим к priority");
+                            };
+                            if (match) mask |= 1 << priority.ordinal();
+                        }
+                    }
+                    priorityMask &= op.equals("!=") ? ~mask : mask;
+                }
+                case "deadline" -> {
+                    String value = values.get(0);
+                    if (value.equalsIgnoreCase("none")) {
+                        switch (op) {
+                            case "=" -> withoutDeadline = true;
+                            case "!=" -> withDeadline = true;
+                            default -> throw new IllegalArgumentException("с none применимы только = и !=");
+                        }
+                        return;
+                    }
+                    long day = parseDate(value).toEpochDay();
+                    withDeadline = true;
+                    switch (op) {
+                        case "=" -> {
+                            fromDay = Math.max(fromDay, day);
+                            toDay = Math.min(toDay, day);
+                        }
+                        case "<" -> toDay = Math.min(toDay, day - 1);
+                        case "<=" -> toDay = Math.min(toDay, day);
+                        case ">" -> fromDay = Math.max(fromDay, day + 1);
+                        case ">=" -> fromDay = Math.max(fromDay, day);
+                        case "!=" -> excludedDays.add(day);
+                        default -> throw new IllegalArgumentException("оператор " + op + " не применим к deadline");
+                    }
+                }
+                case "title", "description", "text" -> {
+                    int fields = switch (field) {
+                        case "title" -> FIELD_TITLE;
+                        case "description" -> FIELD_DESCRIPTION;
+                        default -> FIELD_TITLE | FIELD_DESCRIPTION;
+                    };
+                    if (!op.equals("~") && !op.equals("=")) {
+                        throw new IllegalArgumentException("оператор " + op + " не применим к " + field);
+                    }
+                    texts.add(new TextCondition(fields, op.equals("="), SearchIndex.normalize(values.get(0))));
+                }
+                default -> throw new IllegalArgumentException("неизвестное поле: " + field);
+            }
+        }
+
+        void whereStatus(Status status) {
+            statusMask &= 1 << status.ordinal();
+        }
+
+        void wherePriority(Priority priority) {
+            priorityMask &= 1 << priority.ordinal();
+        }
+
+        void whereDeadline(LocalDate from, LocalDate to) {
+            withDeadline = true;
+            if (from != null) fromDay = Math.max(fromDay, from.toEpochDay());
+            if (to != null) toDay = Math.min(toDay, to.toEpochDay());
+        }
+
+        void whereText(String text) {
+            texts.add(new TextCondition(FIELD_TITLE | FIELD_DESCRIPTION, false, SearchIndex.normalize(text)));
+        }
+
+        void whereOverdue() {
+            withDeadline = true;
+            toDay = Math.min(toDay, today.toEpochDay() - 1);
+            statusMask &= ~(1 << Status.DONE.ordinal());
+        }
+
+        private static <E extends Enum<E>> E valueOf(E[] values, String name) {
+            for (E value : values) {
+                if (value.name().equalsIgnoreCase(name)) return value;
+            }
+            throw new IllegalArgumentException("неизвестное значение: " + name);
+        }
+
+        private LocalDate parseDate(String value) {
+            String v = value.toLowerCase(Locale.ROOT);
+            if (v.equals("today")) return today;
+            if (v.equals("week_end")) return today.plusDays(7);
+            if (v.equals("month_end")) return today.withDayOfMonth(today.lengthOfMonth());
+            if (v.startsWith("today+") || v.startsWith("today-")) {
+                long days = Long.parseLong(v.substring(6));
+                return v.charAt(5) == '+' ? today.plusDays(days) : today.minusDays(days);
+            }
+            try {
+                return v.indexOf('.') > 0 ? LocalDate.parse(v, DateTimeFormatter.ofPattern("dd.MM.yyyy")) : LocalDate.parse(v);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("неверная дата: " + value);
+            }
+        }
+
+        boolean hasText() {
+            return !texts.isEmpty();
+        }
+
+        // Статусы, разрешенные запросом, или null, если статус не ограничен
+        List<Status> statuses() {
+            return restricted(Status.values(), statusMask);
+        }
+
+        List<Priority> priorities() {
+            return restricted(Priority.values(), priorityMask);
+        }
+
+        private static <E extends Enum<E>> List<E> restricted(E[] values, int mask) {
+            if (mask == (1 << values.length) - 1) return null;
+            List<E> allowed = new ArrayList<>();
+            for (E value : values) {
+                if ((mask >>> value.ordinal() & 1) != 0) allowed.add(value);
+            }
+            return allowed;
+        }
+
+        // Значения текстовых условий (уже нормализованные) - кандидаты для поиска по индексу
+        List<String> textTerms() {
+            List<String> terms = new ArrayList<>();
+            for (TextCondition condition : texts) terms.add(condition.value());
+            return terms;
+        }
+
+        boolean hasDeadlineRange() {
+            return fromDay != Long.MIN_VALUE || toDay != Long.MAX_VALUE;
+        }
+
+        // Запрос заведомо ничего не найдет
+        boolean isEmpty() {
+            return statusMask == 0 || priorityMask == 0 || fromDay > toDay || (withDeadline && withoutDeadline)
+                    || (fromDay == toDay && excludedDays.contains(fromDay));
+        }
+
+        LocalDate from() {
+            return LocalDate.ofEpochDay(Math.max(fromDay, LocalDate.MIN.toEpochDay()));
+        }
+
+        LocalDate to() {
+            return LocalDate.ofEpochDay(Math.min(toDay, LocalDate.MAX.toEpochDay()));
+        }
+
+        public boolean test(Task task) {
+            if ((statusMask >>> task.getStatus().ordinal() & 1) == 0) return false;
+            if ((priorityMask >>> task.getPriority().ordinal() & 1) == 0) return false;
+            LocalDate deadline = task.getDeadline();
+            if (deadline == null) {
+                if (withDeadline) return false;
+            } else {
+                if (withoutDeadline) return false;
+                long day = deadline.toEpochDay();
+                if (day < fromDay || day > toDay || excludedDays.contains(day)) return false;
+            }
+            for (TextCondition condition : texts) {
+                if (!condition.test(task)) return false;
+            }
+            return true;
+        }
+    }
+
+    // Потоковый разбор JSON-массива объектов: файл читается по одному символу
+    // через буфер, а в памяти одновременно держатся только поля текущего объекта.
+    static class JsonTaskReader implements Closeable {
+        private final Reader reader;
+        private final StringBuilder buffer = new StringBuilder();
+        private final Map<String, String> fields = new HashMap<>();
+        private int peeked = -2;
+        private long position;
+        private boolean started;
+        private boolean first = true;
+
+        JsonTaskReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        // Возвращает поля следующего объекта или null в конце массива.
+        // Карта переиспользуется между вызовами. Строковые значения уже без
+        // экранирования, null и вложенные значения возвращаются как null.
+        public Map<String, String> nextObject() throws IOException {
+            if (!started) {
+                started = true;
+                if (skipWhitespace() == -1) return null;
+                expect('[');
+            }
+
+            int c = skipWhitespace();
+            if (c == ']') {
+                read();
+                return null;
+            }
+            if (!first) {
+                expect(',');
+                skipWhitespace();
+            }
+            first = false;
+
+            expect('{');
+            fields.clear();
+            c = skipWhitespace();
+            if (c == '}') {
+                read();
+                return fields;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                fields.put(key, readValue());
+
+                c = skipWhitespace();
+                read();
+                if (c == '}') return fields;
+                if (c != ',') throw error("ожидалась ',' или '}'");
+            }
+        }
+
+        private String readValue() throws IOException {
+            int c = peek();
+            if (c == '"') return readString();
+            if (c == '{' || c == '[') {
+                skipNested();
+                return null;
+            }
+
+            // Число или литерал true/false/null
+            buffer.setLength(0);
+            while (true) {
+                c = peek();
+                if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) break;
+                buffer.append((char) read());
+            }
+            if (buffer.length() == 0) throw error("ожидалось значение");
+            String value = buffer.toString();
+            return value.equals("null") ? null : value;
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            buffer.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == -1) throw error("незакрытая строка");
+                if (c == '"') return buffer.toString();
+                if (c != '\\') {
+                    buffer.append((char) c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case '"', '\\', '/' -> buffer.append((char) c);
+                    case 'b' -> buffer.append('\b');
+                    case 'f' -> buffer.append('\f');
+                    case 'n' -> buffer.append('\n');
+                    case 'r' -> buffer.append('\r');
+                    case 't' -> buffer.append('\t');
+                    case 'u' -> {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) throw error("неверная escape-последовательность \\u");
+                            code = code * 16 + digit;
+                        }
+                        buffer.append((char) code);
+                    }
+                    default -> throw error("неверная escape-последовательность");
+                }
+            }
+        }
+
+        // Пропускает вложенный объект или массив, учитывая строки внутри него
+        private void skipNested() throws IOException {
+            int depth = 0;
+            do {
+                int c = peek();
+                if (c == -1) throw error("незакрытый объект");
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                read();
+                if (c == '{' || c == '[') depth++;
+                if (c == '}' || c == ']') depth--;
+            } while (depth > 0);
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c = peek();
+            while (c != -1 && Character.isWhitespace(c)) {
+                read();
+                c = peek();
+            }
+            return c;
+        }
+
+        private void expect(char expected) throws IOException {
+            int c = read();
+            if (c != expected) throw error("ожидался символ '" + expected + "'");
+        }
+
+        private int peek() throws IOException {
+            if (peeked == -2) peeked = reader.read();
+            return peeked;
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            peeked = -2;
+            if (c != -1) position++;
+            return c;
+        }
+
+        private IOException error(String message) {
+            return new IOException("некорректный JSON (символ " + position + "): " + message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // Неизменяемое (persistent) отображение ID -> задача: префиксное дерево
+    // по битам ID, по 5 бит на уровень, со сжатыми узлами (битовая маска
+    // занятых ветвей + плотный массив, как в HAMT). Изменение копирует только
+    // путь от корня до листа (не больше 7 узлов), остальные узлы общие со
+    // старой версией, поэтому снимок - это просто ссылка на корень. Обход идет
+    // от старших битов к младшим, то есть в порядке возрастания ID.
+    // В дереве хранятся копии задач, которые никто не изменяет.
+    static final class TaskTrie {
+        static final TaskTrie EMPTY = new TaskTrie(null, 0);
+        private static final int BITS = 5;
+        private static final int TOP_SHIFT = 30;
+
+        private static final class Node {
+            final int bitmap;
+            final Object[] slots;
+
+            Node(int bitmap, Object[] slots) {
+                this.bitmap = bitmap;
+                this.slots = slots;
+            }
+        }
+
+        private final Node root;
+        private final int size;
+
+        private TaskTrie(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        // Строит дерево сразу, без копирования путей; задачи - в любом порядке
+        static TaskTrie of(Collection<Task> tasks) {
+            Task[] sorted = tasks.toArray(new Task[0]);
+            Arrays.sort(sorted, Comparator.comparingInt(Task::getId));
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                // При повторе ID остается последняя задача, как при put
+                if (count > 0 && sorted[count - 1].getId() == sorted[i].getId()) count--;
+                sorted[count++] = sorted[i].copy();
+            }
+            return new TaskTrie(count == 0 ? null : build(sorted, 0, count, TOP_SHIFT), count);
+        }
+
+        private static Node build(Task[] sorted, int from, int to, int shift) {
+            int bitmap = 0;
+            for (int i = from; i < to; i++) {
+                bitmap |= 1 << index(sorted[i].getId(), shift);
+            }
+            Object[] slots = new Object[Integer.bitCount(bitmap)];
+            int slot = 0;
+            int start = from;
+            while (start < to) {
+                int branch = index(sorted[start].getId(), shift);
+                int end = start + 1;
+                while (end < to && index(sorted[end].getId(), shift) == branch) end++;
+                slots[slot++] = shift == 0 ? sorted[start] : build(sorted, start, end, shift - BITS);
+                start = end;
+            }
+            return new Node(bitmap, slots);
+        }
+
+        private static int index(int id, int shift) {
+            return (id >>> shift) & 31;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Task get(int id) {
+            Node node = root;
+            for (int shift = TOP_SHIFT; node != null; shift -= BITS) {
+                int bit = 1 << index(id, shift);
+                if ((node.bitmap & bit) == 0) return null;
+                Object child = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+                if (shift == 0) return (Task) child;
+                node = (Node) child;
+            }
+            return null;
+        }
+
+        // Новая версия с копией task; эта версия не меняется
+        public TaskTrie put(Task task) {
+            int id = task.getId();
+            return new TaskTrie(put(root, TOP_SHIFT, id, task.copy()), get(id) == null ? size + 1 : size);
+        }
+
+        private static Node put(Node node, int shift, int id, Task task) {
+            int bit = 1 << index(id, shift);
+            int bitmap = node != null ? node.bitmap : 0;
+            int pos = Integer.bitCount(bitmap & (bit - 1));
+            boolean present = (bitmap & bit) != 0;
+
+            Object child = shift == 0 ? task : put(present ? (Node) node.slots[pos] : null, shift - BITS, id, task);
+            Object[] slots;
+            if (present) {
+                slots = node.slots.clone();
+                slots[pos] = child;
+            } else {
+                int length = node != null ? node.slots.length : 0;
+                slots = new Object[length + 1];
+                if (node != null) {
+                    System.arraycopy(node.slots, 0, slots, 0, pos);
+                    System.arraycopy(node.slots, pos, slots, pos + 1, length - pos);
+                }
+                slots[pos] = child;
+            }
+            return new Node(bitmap | bit, slots);
+        }
+
+        public TaskTrie remove(int id) {
+            if (get(id) == null) return this;
+            return new TaskTrie(remove(root, TOP_SHIFT, id), size - 1);
+        }
+
+        // Возвращает null, если узел опустел
+        private static Node remove(Node node, int shift, int id) {
+            int bit = 1 << index(id, shift);
+            int pos = Integer.bitCount(node.bitmap & (bit - 1));
+            Node child = shift == 0 ? null : remove((Node) node.slots[pos], shift - BITS, id);
+            if (child != null) {
+                Object[] slots = node.slots.clone();
+                slots[pos] = child;
+                return new Node(node.bitmap, slots);
+            }
+            if (node.slots.length == 1) return null;
+            Object[] slots = new Object[node.slots.length - 1];
+            System.arraycopy(node.slots, 0, slots, 0, pos);
+            System.arraycopy(node.slots, pos + 1, slots, pos, slots.length - pos);
+            return new Node(node.bitmap & ~bit, slots);
+        }
+
+        // Задачи этой версии в порядке ID
+        public Collection<Task> values() {
+            return new AbstractCollection<>() {
+                @Override
+                public Iterator<Task> iterator() {
+                    return new TrieIterator(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        private static final class TrieIterator implements Iterator<Task> {
+            private final Node[] nodes = new Node[TOP_SHIFT / BITS + 1];
+            private final int[] positions = new int[TOP_SHIFT / BITS + 1];
+            private int depth = -1;
+            private Task next;
+
+            TrieIterator(Node root) {
+                if (root != null) {
+                    nodes[0] = root;
+                    depth = 0;
+                }
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (depth >= 0) {
+                    Node node = nodes[depth];
+                    if (positions[depth] == node.slots.length) {
+                        depth--;
+                        continue;
+                    }
+                    Object child = node.slots[positions[depth]++];
+                    if (depth == nodes.length - 1) {
+                        next = (Task) child;
+                        return;
+                    }
+                    nodes[++depth] = (Node) child;
+                    positions[depth] = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Task next() {
+                if (next == null) throw new NoSuchElementException();
+                Task task = next;
+                advance();
+                return task;
+            }
+        }
+    }
+
+    // Календарный индекс дедлайнов: задачи разложены по дням, внутри дня -
+    // в порядке ID. Окно дат читается прямо из корзин уже сгруппированным по
+    // дням, без обхода и сортировки всех задач. День, под которым задача
+    // проиндексирована, запоминается, поэтому снять ее можно и после изменения.
+    // Корзина дня - неизменяемый массив, который при изменении заменяется
+    // копией (в день обычно несколько задач), а дни лежат в конкурентной
+    // карте: читатель без блокировки (см. execute) видит каждый день целым.
+    static class CalendarIndex {
+        private static final Task[] NO_TASKS = new Task[0];
+
+        private final ConcurrentSkipListMap<LocalDate, Task[]> days = new ConcurrentSkipListMap<>();
+        // ID -> день дедлайна (null - задача без дедлайна); только для записи
+        private final Map<Integer, LocalDate> indexed = new HashMap<>();
+        private volatile int withoutDeadline;
+
+        public void add(Task task) {
+            remove(task);
+            LocalDate day = task.getDeadline();
+            indexed.put(task.getId(), day);
+            if (day == null) {
+                withoutDeadline++;
+                return;
+            }
+            Task[] bucket = days.getOrDefault(day, NO_TASKS);
+            int pos = position(bucket, task.getId());
+            Task[] updated;
+            if (pos >= 0) {
+                updated = bucket.clone();
+                updated[pos] = task;
+            } else {
+                pos = -pos - 1;
+                updated = new Task[bucket.length + 1];
+                System.arraycopy(bucket, 0, updated, 0, pos);
+                System.arraycopy(bucket, pos, updated, pos + 1, bucket.length - pos);
+                updated[pos] = task;
+            }
+            days.put(day, updated);
+        }
+
+        public void remove(Task task) {
+            if (!indexed.containsKey(task.getId())) return;
+            LocalDate day = indexed.remove(task.getId());
+            if (day == null) {
+                withoutDeadline--;
+                return;
+            }
+            Task[] bucket = days.get(day);
+            int pos = position(bucket, task.getId());
+            if (pos < 0) return;
+            if (bucket.length == 1) {
+                days.remove(day);
+                return;
+            }
+            Task[] updated = new Task[bucket.length - 1];
+            System.arraycopy(bucket, 0, updated, 0, pos);
+            System.arraycopy(bucket, pos + 1, updated, pos, updated.length - pos);
+            days.put(day, updated);
+        }
+
+        public void clear() {
+            days.clear();
+            indexed.clear();
+            withoutDeadline = 0;
+        }
+
+        // Задачи окна [from, to], подходящие под filter, по дням; пустые дни пропускаются
+        public SortedMap<LocalDate, List<Task>> window(LocalDate from, LocalDate to, Predicate<Task> filter) {
+            SortedMap<LocalDate, List<Task>> window = new TreeMap<>();
+            if (from.isAfter(to)) return window;
+            for (Map.Entry<LocalDate, Task[]> day : days.subMap(from, true, to, true).entrySet()) {
+                List<Task> selected = new ArrayList<>();
+                for (Task task : day.getValue()) {
+                    if (filter.test(task)) selected.add(task);
+                }
+                if (!selected.isEmpty()) window.put(day.getKey(), selected);
+            }
+            return window;
+        }
+
+        // Все задачи окна подряд: по дням, внутри дня по ID
+        public List<Task> between(LocalDate from, LocalDate to) {
+            List<Task> found = new ArrayList<>();
+            if (from.isAfter(to)) return found;
+            for (Task[] bucket : days.subMap(from, true, to, true).values()) {
+                Collections.addAll(found, bucket);
+            }
+            return found;
+        }
+
+        public int count(LocalDate from, LocalDate to) {
+            int count = 0;
+            if (from.isAfter(to)) return count;
+            for (Task[] bucket : days.subMap(from, true, to, true).values()) {
+                count += bucket.length;
+            }
+            return count;
+        }
+
+        public int countWithoutDeadline() {
+            return withoutDeadline;
+        }
+
+        private static int position(Task[] bucket, int id) {
+            int low = 0;
+            int high = bucket.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midId = bucket[mid].getId();
+                if (midId < id) low = mid + 1;
+                else if (midId > id) high = mid - 1;
+                else return mid;
+            }
+            return -(low + 1);
+        }
+    }
+
+    // Множества ID задач по значению перечисления (статусу или приоритету):
+    // путь доступа запроса для условий status и priority. ID задачи - номер
+    // бита в массиве своего значения; массив растет заменой на копию, поэтому
+    // его можно читать без блокировки (см. execute). Задача снимается по
+    // текущему значению, как и в TaskStatistics: unindex вызывается до изменения.
+    static class EnumBitmapIndex<E extends Enum<E>> {
+        private static final long[] NO_WORDS = new long[0];
+
+        private final Function<Task, E> key;
+        private final long[][] bits;
+
+        EnumBitmapIndex(Class<E> type, Function<Task, E> key) {
+            this.key = key;
+            this.bits = new long[type.getEnumConstants().length][];
+            Arrays.fill(bits, NO_WORDS);
+        }
+
+        public void add(Task task) {
+            int value = key.apply(task).ordinal();
+            int id = task.getId();
+            long[] words = bits[value];
+            if (id >>> 6 >= words.length) {
+                words = Arrays.copyOf(words, Math.max((id >>> 6) + 1, words.length * 2));
+                words[id >>> 6] |= 1L << id;
+                bits[value] = words;
+            } else {
+                words[id >>> 6] |= 1L << id;
+            }
+        }
+
+        public void remove(Task task) {
+            long[] words = bits[key.apply(task).ordinal()];
+            int id = task.getId();
+            if (id >>> 6 < words.length) words[id >>> 6] &= ~(1L << id);
+        }
+
+        public void clear() {
+            Arrays.fill(bits, NO_WORDS);
+        }
+
+        // Задачи с одним из значений в порядке ID
+        public List<Task> tasks(Collection<E> values, IntFunction<Task> byId) {
+            long[][] selected = new long[values.size()][];
+            int length = 0;
+            int n = 0;
+            for (E value : values) {
+                selected[n] = bits[value.ordinal()];
+                length = Math.max(length, selected[n++].length);
+            }
+            List<Task> found = new ArrayList<>();
+            for (int w = 0; w < length; w++) {
+                long word = 0;
+                for (long[] words : selected) {
+                    if (w < words.length) word |= words[w];
+                }
+                while (word != 0) {
+                    Task task = byId.apply(w << 6 | Long.numberOfTrailingZeros(word));
+                    if (task != null) found.add(task);
+                    word &= word - 1;
+                }
+            }
+            return found;
+        }
+    }
+
+    // Сжатое префиксное дерево нормализованных названий для автодополнения.
+    // Ребро хранит метку как отрезок строки названия, поэтому узлов не больше
+    // двух на название и символы не копируются. Подсказки ищутся обходом дерева
+    // со строкой расстояния Левенштейна: ветка отбрасывается, как только в
+    // строке не остается значений в пределах допуска. Расстояние до названия -
+    // наименьшее расстояние от запроса до его префиксов, т.е. опечатки
+    // допускаются только во введенной части. Как и текстовый индекс, дерево
+    // строится при первом обращении и дальше обновляется по изменениям.
+    // Массивы узлов не меняются, а заменяются копиями, и ребро при делении
+    // не укорачивается, а заменяется новым узлом: читатель без блокировки
+    // (см. execute) видит каждый узел целым.
+    static class TitleTrie {
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Task[] NO_TASKS = new Task[0];
+
+        record Suggestion(Task task, int distance) {}
+
+        private static final class Node {
+            // Метка ребра от родителя: text[start, end)
+            final String text;
+            final int start;
+            final int end;
+            // Дети по первому символу метки
+            Node[] children = NO_CHILDREN;
+            // Задачи, название которых заканчивается в этом узле, по ID
+            Task[] tasks = NO_TASKS;
+
+            Node(String text, int start, int end) {
+                this.text = text;
+                this.start = start;
+                this.end = end;
+            }
+
+            char key() {
+                return text.charAt(start);
+            }
+
+            int find(char key) {
+                Node[] children = this.children;
+                int low = 0;
+                int high = children.length - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    char midKey = children[mid].key();
+                    if (midKey < key) low = mid + 1;
+                    else if (midKey > key) high = mid - 1;
+                    else return mid;
+                }
+                return -(low + 1);
+            }
+
+            void insertChild(int pos, Node child) {
+                Node[] updated = new Node[children.length + 1];
+                System.arraycopy(children, 0, updated, 0, pos);
+                System.arraycopy(children, pos, updated, pos + 1, children.length - pos);
+                updated[pos] = child;
+                children = updated;
+            }
+
+            void replaceChild(int pos, Node child) {
+                Node[] updated = children.clone();
+                updated[pos] = child;
+                children = updated;
+            }
+
+            void removeChild(int pos) {
+                Node[] updated = new Node[children.length - 1];
+                System.arraycopy(children, 0, updated, 0, pos);
+                System.arraycopy(children, pos + 1, updated, pos, updated.length - pos);
+                children = updated;
+            }
+
+            int position(int id) {
+                int low = 0;
+                int high = tasks.length - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    int midId = tasks[mid].getId();
+                    if (midId < id) low = mid + 1;
+                    else if (midId > id) high = mid - 1;
+                    else return mid;
+                }
+                return -(low + 1);
+            }
+        }
+
+        // Узел дерева, с которого начинаются подходящие названия
+        private record Match(Node node, int distance) {}
+
+        private final Node root = new Node("", 0, 0);
+        // ID -> нормализованное название на момент индексации
+        private final Map<Integer, String> titles = new HashMap<>();
+        private volatile boolean built;
+
+        public boolean isBuilt() {
+            return built;
+        }
+
+        public void build(Collection<Task> tasks) {
+            clear();
+            built = true;
+            for (Task task : tasks) {
+                add(task);
+            }
+        }
+
+        public void add(Task task) {
+            if (!built) return;
+            remove(task);
+            String title = SearchIndex.normalize(task.getTitle());
+            titles.put(task.getId(), title);
+            Node node = root;
+            int i = 0;
+            while (i < title.length()) {
+                int pos = node.find(title.charAt(i));
+                if (pos < 0) {
+                    Node leaf = new Node(title, i, title.length());
+                    node.insertChild(-pos - 1, leaf);
+                    node = leaf;
+                    break;
+                }
+                Node child = node.children[pos];
+                int j = child.start;
+                while (j < child.end && i < title.length() && child.text.charAt(j) == title.charAt(i)) {
+                    j++;
+                    i++;
+                }
+                if (j < child.end) {
+                    // Название расходится с меткой посередине ребра - ребро делится:
+                    // нижняя часть переходит в новый узел вместе с детьми и задачами
+                    Node lower = new Node(child.text, j, child.end);
+                    lower.children = child.children;
+                    lower.tasks = child.tasks;
+                    Node middle = new Node(child.text, child.start, j);
+                    middle.children = new Node[] {lower};
+                    node.replaceChild(pos, middle);
+                    child = middle;
+                }
+                node = child;
+            }
+            int pos = node.position(task.getId());
+            if (pos >= 0) return;
+            pos = -pos - 1;
+            Task[] updated = new Task[node.tasks.length + 1];
+            System.arraycopy(node.tasks, 0, updated, 0, pos);
+            System.arraycopy(node.tasks, pos, updated, pos + 1, node.tasks.length - pos);
+            updated[pos] = task;
+            node.tasks = updated;
+        }
+
+        public void remove(Task task) {
+            if (!built) return;
+            String title = titles.remove(task.getId());
+            if (title == null) return;
+            // Путь от корня нужен, чтобы убрать опустевшие листья
+            List<Node> path = new ArrayList<>();
+            Node node = root;
+            path.add(node);
+            int i = 0;
+            while (i < title.length()) {
+                int pos = node.find(title.charAt(i));
+                if (pos < 0) return;
+                node = node.children[pos];
+                i += node.end - node.start;
+                path.add(node);
+            }
+            int pos = node.position(task.getId());
+            if (pos < 0) return;
+            Task[] updated = new Task[node.tasks.length - 1];
+            System.arraycopy(node.tasks, 0, updated, 0, pos);
+            System.arraycopy(node.tasks, pos + 1, updated, pos, updated.length - pos);
+            node.tasks = updated;
+            for (int k = path.size() - 1; k > 0; k--) {
+                Node leaf = path.get(k);
+                if (leaf.tasks.length > 0 || leaf.children.length > 0) break;
+                Node parent = path.get(k - 1);
+                parent.removeChild(parent.find(leaf.key()));
+            }
+        }
+
+        // Сбрасывает дерево; оно будет построено заново при следующем обращении
+        public void clear() {
+            root.children = NO_CHILDREN;
+            root.tasks = NO_TASKS;
+            titles.clear();
+            built = false;
+        }
+
+        // Допуск растет с длиной запроса: на коротком вводе опечатка
+        // подходит почти к любому названию
+        static int maxEdits(int length) {
+            return length <= 2 ? 0 : length <= 5 ? 1 : 2;
+        }
+
+        // До limit подсказок: сначала точные совпадения префикса, затем с одной
+        // и двумя правками; при равном расстоянии - по алфавиту, затем по ID
+        public List<Suggestion> complete(String prefix, int limit) {
+            String query = SearchIndex.normalize(prefix.trim());
+            List<Suggestion> found = new ArrayList<>();
+            if (query.isEmpty() || limit <= 0) return found;
+            int maxEdits = maxEdits(query.length());
+            int[] row = new int[query.length() + 1];
+            for (int i = 0; i < row.length; i++) row[i] = i;
+            List<Match> matches = new ArrayList<>();
+            walk(root, query, row, maxEdits, maxEdits + 1, matches);
+            // Совпадения с меньшим расстоянием лежат глубже совпадений-предков и
+            // должны забрать свои названия первыми; сортировка устойчива, поэтому
+            // при равном расстоянии сохраняется алфавитный порядок обхода
+            matches.sort(Comparator.comparingInt(Match::distance));
+            Set<Integer> seen = new HashSet<>();
+            for (Match match : matches) {
+                if (found.size() >= limit) break;
+                collect(match.node(), match.distance(), limit, seen, found);
+            }
+            return found;
+        }
+
+        // inherited - лучшее расстояние, уже найденное выше по пути;
+        // узел записывается, только если на его ребре расстояние стало меньше
+        private static void walk(Node node, String query, int[] row, int maxEdits,
+                                 int inherited, List<Match> matches) {
+            int m = query.length();
+            for (Node child : node.children) {
+                int[] current = row;
+                int best = inherited;
+                boolean alive = true;
+                for (int pos = child.start; pos < child.end && alive; pos++) {
+                    current = step(current, query, child.text.charAt(pos));
+                    best = Math.min(best, current[m]);
+                    int min = current[0];
+                    for (int value : current) min = Math.min(min, value);
+                    // Ниже расстояние не станет меньше, чем минимум строки
+                    alive = min <= maxEdits && min < best;
+                }
+                if (best < inherited) matches.add(new Match(child, best));
+                if (alive) walk(child, query, current, maxEdits, best, matches);
+            }
+        }
+
+        private static int[] step(int[] previous, String query, char ch) {
+            int[] row = new int[previous.length];
+            row[0] = previous[0] + 1;
+            for (int i = 1; i < row.length; i++) {
+                int replace = previous[i - 1] + (query.charAt(i - 1) == ch ? 0 : 1);
+                row[i] = Math.min(replace, Math.min(previous[i] + 1, row[i - 1] + 1));
+            }
+            return row;
+        }
+
+        // Названия поддерева в алфавитном порядке, пока не наберется limit
+        private static void collect(Node node, int distance, int limit, Set<Integer> seen, List<Suggestion> found) {
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty() && found.size() < limit) {
+                Node current = stack.pop();
+                for (Task task : current.tasks) {
+                    if (found.size() >= limit) break;
+                    if (seen.add(task.getId())) found.add(new Suggestion(task, distance));
+                }
+                Node[] children = current.children;
+                for (int c = children.length - 1; c >= 0; c--) {
+                    stack.push(children[c]);
+                }
+            }
+        }
+    }
+
+    // Упорядоченный индекс по времени изменения: задачи, измененные после
+    // заданного момента, и последние измененные задачи находятся без обхода
+    // всего списка. Ключ - копия (updatedAt, id) на момент индексации, поэтому
+    // задачу можно снять с индекса и после того, как ее поле уже изменилось.
+    static class UpdatedAtIndex {
+        // Внутри одного момента - по возрастанию ID при обходе от новых к старым
+        private record Stamp(LocalDateTime updatedAt, int id) implements Comparable<Stamp> {
+            @Override
+            public int compareTo(Stamp other) {
+                int byTime = updatedAt.compareTo(other.updatedAt);
+                return byTime != 0 ? byTime : Integer.compare(other.id, id);
+            }
+        }
+
+        private final TreeMap<Stamp, Task> byTime = new TreeMap<>();
+        private final Map<Integer, Stamp> stamps = new HashMap<>();
+
+        public void add(Task task) {
+            remove(task);
+            Stamp stamp = new Stamp(task.getUpdatedAt(), task.getId());
+            stamps.put(task.getId(), stamp);
+            byTime.put(stamp, task);
+        }
+
+        public void remove(Task task) {
+            Stamp stamp = stamps.remove(task.getId());
+            if (stamp != null) byTime.remove(stamp);
+        }
+
+        public void clear() {
+            byTime.clear();
+            stamps.clear();
+        }
+
+        // Задачи, измененные строго позже watermark, от старых к новым
+        public Collection<Task> changedAfter(LocalDateTime watermark) {
+            return byTime.tailMap(new Stamp(watermark, Integer.MIN_VALUE), false).values();
+        }
+
+        // limit последних измененных задач, от новых к старым
+        public List<Task> latest(int limit) {
+            List<Task> latest = new ArrayList<>(Math.min(limit, byTime.size()));
+            for (Task task : byTime.descendingMap().values()) {
+                if (latest.size() >= limit) break;
+                latest.add(task);
+            }
+            return latest;
+        }
+    }
+
+    // Выбор k первых элементов в заданном порядке за O(n log k):
+    // куча с наибольшим из выбранных наверху, без сортировки всего списка
+    static class TopK {
+        static <T> List<T> select(Iterable<T> items, int k, Comparator<? super T> order) {
+            if (k <= 0) return new ArrayList<>();
+
+            PriorityQueue<T> heap = new PriorityQueue<>(k + 1, order.reversed());
+            for (T item : items) {
+                if (heap.size() < k) {
+                    heap.add(item);
+                } else if (order.compare(item, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(item);
+                }
+            }
+
+            List<T> top = new ArrayList<>(heap);
+            top.sort(order);
+            return top;
+        }
+    }
+
+    // Напоминания о дедлайнах на иерархическом колесе таймеров (шаг - минута,
+    // 4 уровня по 64 ячейки, около 30 лет вперед). Постановка и снятие
+    // таймера - O(1), продвижение на минуту затрагивает только одну ячейку,
+    // поэтому миллионы ожидающих дедлайнов не сканируются.
+    // Для каждой задачи с дедлайном ожидает один таймер: на ближайшее
+    // напоминание, после срабатывания он переставляется на следующее.
+    static class DeadlineScheduler {
+        private static final int LEVELS = 4;
+        private static final int BITS = 6;
+        private static final int SLOTS = 1 << BITS;
+        private static final long MASK = SLOTS - 1;
+        private static final long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+
+        // minutesLeft = 0 - дедлайн истек
+        record Reminder(Task task, long minutesLeft) {
+            boolean overdue() {
+                return minutesLeft == 0;
+            }
+        }
+
+        private static final class Timer {
+            Task task;
+            long due;
+            int stage;
+            Timer prev = this;
+            Timer next = this;
+
+            void unlink() {
+                prev.next = next;
+                next.prev = prev;
+                prev = next = this;
+            }
+        }
+
+        // Напоминания за столько минут до конца дня дедлайна, по убыванию;
+        // последний элемент всегда 0 - момент, когда задача становится просроченной
+        private final long[] offsets;
+        private final ZoneId zone;
+        private final Timer[][] wheel = new Timer[LEVELS][SLOTS];
+        private final Map<Integer, Timer> timers = new HashMap<>();
+        private long current;
+
+        DeadlineScheduler(int[] offsetHours, ZoneId zone, long nowMinute) {
+            this.offsets = LongStream.concat(Arrays.stream(offsetHours).filter(h -> h > 0).asLongStream().map(h -> h * 60),
+                    LongStream.of(0)).boxed().sorted(Comparator.reverseOrder()).distinct()
+                    .mapToLong(Long::longValue).toArray();
+            this.zone = zone;
+            this.current = nowMinute;
+            for (Timer[] level : wheel) {
+                for (int i = 0; i < SLOTS; i++) {
+                    level[i] = new Timer();
+                }
+            }
+        }
+
+        static long minuteOf(Instant instant) {
+            return Math.floorDiv(instant.getEpochSecond(), 60);
+        }
+
+        public synchronized void schedule(Task task) {
+            cancel(task);
+            if (task.getDeadline() == null || task.getStatus() == Status.DONE
+                    || task.getStatus() == Status.CANCELLED) {
+                return;
+            }
+
+            long deadline = minuteOf(task.getDeadline().plusDays(1).atStartOfDay(zone).toInstant());
+            int stage = 0;
+            while (stage < offsets.length && deadline - offsets[stage] <= current) {
+                stage++;
+            }
+            if (stage == offsets.length) return;
+
+            Timer timer = new Timer();
+            timer.task = task;
+            timer.stage = stage;
+            timer.due = deadline - offsets[stage];
+            timers.put(task.getId(), timer);
+            insert(timer);
+        }
+
+        public synchronized void cancel(Task task) {
+            Timer timer = timers.remove(task.getId());
+            if (timer != null) {
+                timer.unlink();
+            }
+        }
+
+        public synchronized void clear() {
+            for (Timer[] level : wheel) {
+                for (Timer head : level) {
+                    head.prev = head.next = head;
+                }
+            }
+            timers.clear();
+        }
+
+        public synchronized int pending() {
+            return timers.size();
+        }
+
+        // Продвигает колесо до nowMinute и возвращает сработавшие напоминания
+        public synchronized List<Reminder> advance(long nowMinute) {
+            List<Reminder> fired = new ArrayList<>();
+            while (current < nowMinute) {
+                current++;
+                // Когда младший уровень прошел полный круг, таймеры из
+                // следующей ячейки старшего уровня спускаются ниже
+                for (int level = 1; level < LEVELS; level++) {
+                    if ((current & ((1L << (BITS * level)) - 1)) != 0) break;
+                    cascade(wheel[level][(int) ((current >>> (BITS * level)) & MASK)]);
+                }
+
+                Timer head = wheel[0][(int) (current & MASK)];
+                while (head.next != head) {
+                    Timer timer = head.next;
+                    timer.unlink();
+                    if (timer.due > current) {
+                        insert(timer);
+                        continue;
+                    }
+
+                    long deadline = timer.due + offsets[timer.stage];
+                    fired.add(new Reminder(timer.task, offsets[timer.stage]));
+                    if (++timer.stage < offsets.length) {
+                        timer.due = deadline - offsets[timer.stage];
+                        insert(timer);
+                    } else {
+                        timers.remove(timer.task.getId());
+                    }
+                }
+            }
+            return fired;
+        }
+
+        private void cascade(Timer head) {
+            Timer timer = head.next;
+            head.prev = head.next = head;
+            while (timer != head) {
+                Timer next = timer.next;
+                timer.prev = timer.next = timer;
+                insert(timer);
+                timer = next;
+            }
+        }
+
+        private void insert(Timer timer) {
+            long delay = Math.min(Math.max(timer.due - current, 1), MAX_DELAY);
+            long when = current + delay;
+            int level = 0;
+            while (level < LEVELS - 1 && delay >= 1L << (BITS * (level + 1))) {
+                level++;
+            }
+            Timer head = wheel[level][(int) ((when >>> (BITS * level)) & MASK)];
+            timer.prev = head.prev;
+            timer.next = head;
+            head.prev.next = timer;
+            head.prev = timer;
+        }
+    }
+
+    // Поток событий об изменении задач. События лежат в кольцевом буфере
+    // фиксированного размера; у каждого подписчика свой поток и своя позиция
+    // чтения, события он получает пачками до maxBatch штук. Запись события -
+    // захват номера через AtomicLong и запись в ячейку, без блокировок.
+    // Если подписчик отстал на весь буфер:
+    //   BLOCK - производитель ждет, пока подписчик освободит ячейку;
+    //   DROP  - производитель не ждет, а подписчик пропускает затертые
+    //           события и узнает об этом через onOverflow().
+    static class ChangeBus implements Closeable {
+        enum Type { CREATED, UPDATED, DELETED, RELOADED }
+
+        enum Field { TITLE, DESCRIPTION, STATUS, PRIORITY, DEADLINE }
+
+        enum Overflow { BLOCK, DROP }
+
+        // task - копия задачи после изменения (для DELETED - до удаления,
+        // для RELOADED - null: все задачи заменены импортом)
+        record ChangeEvent(long sequence, Type type, int taskId, Task task, Set<Field> changed) {}
+
+        interface Subscriber {
+            void onEvents(List<ChangeEvent> batch) throws Exception;
+
+            default void onOverflow(long skipped) {
+            }
+        }
+
+        private final class Subscription implements Runnable {
+            final Subscriber subscriber;
+            final Overflow overflow;
+            final int maxBatch;
+            final Thread thread;
+            // Номер следующего события, которое прочитает подписчик
+            volatile long cursor;
+            volatile boolean waiting;
+
+            Subscription(Subscriber subscriber, Overflow overflow, int maxBatch, String name) {
+                this.subscriber = subscriber;
+                this.overflow = overflow;
+                this.maxBatch = maxBatch;
+                this.cursor = next.get();
+                this.thread = new Thread(this, name);
+                this.thread.setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                List<ChangeEvent> batch = new ArrayList<>(maxBatch);
+                while (true) {
+                    long position = cursor;
+                    while (batch.size() < maxBatch) {
+                        ChangeEvent event = slots.get((int) (position & mask));
+                        if (event == null || event.sequence() < position) break;
+                        if (event.sequence() > position) {
+                            // Ячейку уже перезаписали: подписчик отстал больше чем на буфер
+                            subscriber.onOverflow(event.sequence() - position);
+                            position = event.sequence();
+                            continue;
+                        }
+                        batch.add(event);
+                        position++;
+                    }
+
+                    if (batch.isEmpty()) {
+                        if (closed) return;
+                        waiting = true;
+                        if (!available(position)) {
+                            LockSupport.parkNanos(this, 100_000_000L);
+                        }
+                        waiting = false;
+                        continue;
+                    }
+
+                    try {
+                        subscriber.onEvents(batch);
+                    } catch (Exception e) {
+                        System.out.println("❌ Ошибка подписчика " + thread.getName() + ": " + e.getMessage());
+                    }
+                    batch.clear();
+                    cursor = position;
+                }
+            }
+        }
+
+        private final int capacity;
+        private final int mask;
+        private final AtomicReferenceArray<ChangeEvent> slots;
+        private final AtomicLong next = new AtomicLong();
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private volatile boolean closed;
+
+        ChangeBus(int capacity) {
+            this.capacity = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            this.mask = this.capacity - 1;
+            this.slots = new AtomicReferenceArray<>(this.capacity);
+        }
+
+        public void subscribe(String name, Subscriber subscriber, Overflow overflow, int maxBatch) {
+            Subscription subscription = new Subscription(subscriber, overflow, Math.max(1, maxBatch), name);
+            subscriptions.add(subscription);
+            subscription.thread.start();
+        }
+
+        // Без подписчиков события не создаются вовсе
+        public boolean hasSubscribers() {
+            return !subscriptions.isEmpty();
+        }
+
+        // Вызывается под блокировкой записи планировщика. Если подписчик BLOCK
+        // отстал на весь буфер, publish ждет его, и все это время стоят
+        // остальные записи, а чтения откатываются на опубликованную версию
+        // или ждут вместе с записями.
+        // Поэтому команды перед блокировкой ждут в awaitCapacity(), и под ней
+        // ждать приходится только операциям больше половины буфера.
+        public void publish(Type type, int taskId, Task task, Set<Field> changed) {
+            if (subscriptions.isEmpty()) return;
+            long sequence = next.getAndIncrement();
+            for (Subscription subscription : subscriptions) {
+                if (subscription.overflow != Overflow.BLOCK) continue;
+                while (sequence - subscription.cursor >= capacity && subscription.thread.isAlive()) {
+                    LockSupport.unpark(subscription.thread);
+                    LockSupport.parkNanos(10_000L);
+                }
+            }
+
+            // Отставший производитель не затирает более новое событие в той же ячейке
+            int slot = (int) (sequence & mask);
+            ChangeEvent event = new ChangeEvent(sequence, type, taskId, task, changed);
+            ChangeEvent current;
+            do {
+                current = slots.get(slot);
+                if (current != null && current.sequence() > sequence) break;
+            } while (!slots.compareAndSet(slot, current, event));
+            for (Subscription subscription : subscriptions) {
+                if (subscription.waiting) LockSupport.unpark(subscription.thread);
+            }
+        }
+
+        // Ждет, пока у подписчиков BLOCK освободится хотя бы половина буфера.
+        // Вызывается до блокировки записи, чтобы ожидание отставшего
+        // подписчика не останавливало других
+        public void awaitCapacity() {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.overflow != Overflow.BLOCK) continue;
+                while (next.get() - subscription.cursor > capacity / 2 && subscription.thread.isAlive()) {
+                    LockSupport.unpark(subscription.thread);
+                    LockSupport.parkNanos(10_000L);
+                }
+            }
+        }
+
+        private boolean available(long position) {
+            ChangeEvent event = slots.get((int) (position & mask));
+            return event != null && event.sequence() >= position;
+        }
+
+        // Какие поля отличаются у двух состояний одной задачи
+        static Set<Field> diff(Task before, Task after) {
+            EnumSet<Field> changed = EnumSet.noneOf(Field.class);
+            if (!before.getTitle().equals(after.getTitle())) changed.add(Field.TITLE);
+            if (!before.getDescription().equals(after.getDescription())) changed.add(Field.DESCRIPTION);
+            if (before.getStatus() != after.getStatus()) changed.add(Field.STATUS);
+            if (before.getPriority() != after.getPriority()) changed.add(Field.PRIORITY);
+            if (!Objects.equals(before.getDeadline(), after.getDeadline())) changed.add(Field.DEADLINE);
+            return changed;
+        }
+
+        // Подписчики дочитывают оставшиеся события и останавливаются
+        @Override
+        public void close() {
+            closed = true;
+            for (Subscription subscription : subscriptions) {
+                LockSupport.unpark(subscription.thread);
+                try {
+                    subscription.thread.join(5_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Подписчик, который дописывает события в файл, по строке на событие:
+    //   номер;ТИП;ID;ИЗМЕНЕННЫЕ,ПОЛЯ;задача в формате CSV
+    static class EventFileExporter implements ChangeBus.Subscriber {
+        private final Path path;
+
+        EventFileExporter(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void onEvents(List<ChangeBus.ChangeEvent> batch) throws IOException {
+            StringBuilder out = new StringBuilder(batch.size() * 160);
+            for (ChangeBus.ChangeEvent event : batch) {
+                out.append(event.sequence()).append(';').append(event.type()).append(';').append(event.taskId()).append(';');
+                if (event.changed() != null) {
+                    StringJoiner fields = new StringJoiner(",");
+                    for (ChangeBus.Field field : event.changed()) fields.add(field.name());
+                    out.append(fields);
+                }
+                out.append(';');
+                if (event.task() != null) TaskEncoder.appendCSV(out, event.task());
+                out.append('\n');
+            }
+            Files.writeString(path, out, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void onOverflow(long skipped) {
+            System.out.println("⚠️  Выгрузка событий пропустила " + skipped + " событий");
+        }
+    }
+
+    // Метрики: время операций (счетчик, среднее, перцентили по
+    // логарифмической гистограмме), счетчики строк, байтов и ошибок разбора
+    // для каждого формата и оценка памяти на задачу. Запись метрики - пара
+    // атомарных инкрементов без блокировок. Все метрики видны через JMX
+    // (домен TaskPlanner) и периодически выгружаются в metrics.txt.
+    static class Metrics {
+        enum Counter {
+            CSV_ROWS_READ, CSV_BYTES_READ, CSV_PARSE_ERRORS, CSV_ROWS_WRITTEN, CSV_BYTES_WRITTEN,
+            JSON_ROWS_READ, JSON_BYTES_READ, JSON_PARSE_ERRORS, JSON_ROWS_WRITTEN, JSON_BYTES_WRITTEN,
+            SNAPSHOT_ROWS_READ, SNAPSHOT_BYTES_READ, SNAPSHOT_ROWS_WRITTEN, SNAPSHOT_BYTES_WRITTEN,
+            JOURNAL_RECORDS_WRITTEN, JOURNAL_RECORDS_REPLAYED, JOURNAL_PARSE_ERRORS, JOURNAL_COMMITS,
+            DESCRIPTION_CACHE_HITS, DESCRIPTION_CACHE_MISSES, OPTIMISTIC_READ_FALLBACKS
+        }
+
+        public interface TimerMBean {
+            long getCount();
+            double getMeanMillis();
+            double getP50Millis();
+            double getP90Millis();
+            double getP99Millis();
+            double getMaxMillis();
+        }
+
+        // Гистограмма с 8 ячейками на каждую степень двойки: перцентиль
+        // известен с точностью до 12.5%
+        static final class Timer implements TimerMBean {
+            private static final int SUB_BITS = 3;
+            private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BITS);
+            private final LongAdder count = new LongAdder();
+            private final LongAdder totalNanos = new LongAdder();
+            private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+            public void record(long nanos) {
+                nanos = Math.max(nanos, 0);
+                buckets.incrementAndGet(bucket(nanos));
+                count.increment();
+                totalNanos.add(nanos);
+                maxNanos.accumulate(nanos);
+            }
+
+            private static int bucket(long value) {
+                if (value < 1 << SUB_BITS) return (int) value;
+                int exponent = 63 - Long.numberOfLeadingZeros(value);
+                int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+                return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+            }
+
+            // Наибольшее значение, попадающее в ячейку
+            private static long upperBound(int bucket) {
+                if (bucket < 1 << SUB_BITS) return bucket;
+                int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+                int sub = bucket & ((1 << SUB_BITS) - 1);
+                long width = 1L << (exponent - SUB_BITS);
+                return (((1L << SUB_BITS) + sub) * width) + width - 1;
+            }
+
+            public double percentileMillis(double quantile) {
+                long total = 0;
+                long[] snapshot = new long[buckets.length()];
+                for (int i = 0; i < snapshot.length; i++) {
+                    snapshot[i] = buckets.get(i);
+                    total += snapshot[i];
+                }
+                if (total == 0) return 0;
+                long rank = (long) Math.ceil(quantile * total);
+                long seen = 0;
+                for (int i = 0; i < snapshot.length; i++) {
+                    seen += snapshot[i];
+                    if (seen >= rank) return Math.min(upperBound(i), maxNanos.get()) / 1e6;
+                }
+                return maxNanos.get() / 1e6;
+            }
+
+            @Override public long getCount() { return count.sum(); }
+            @Override public double getMeanMillis() {
+                long n = count.sum();
+                return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+            }
+            @Override public double getP50Millis() { return percentileMillis(0.5); }
+            @Override public double getP90Millis() { return percentileMillis(0.9); }
+            @Override public double getP99Millis() { return percentileMillis(0.99); }
+            @Override public double getMaxMillis() { return maxNanos.get() / 1e6; }
+        }
+
+        private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+        private final LongAdder[] counters = new LongAdder[Counter.values().length];
+        private volatile IntSupplier taskCount = () -> 0;
+
+        Metrics() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new LongAdder();
+            }
+            register("TaskPlanner:type=Storage", new CountersMBean());
+        }
+
+        public Timer timer(String operation) {
+            return timers.computeIfAbsent(operation, name -> {
+                Timer timer = new Timer();
+                register("TaskPlanner:type=Operation,name=" + ObjectName.quote(name), timer);
+                return timer;
+            });
+        }
+
+        public void add(Counter counter, long delta) {
+            counters[counter.ordinal()].add(delta);
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()].sum();
+        }
+
+        void bindTaskCount(IntSupplier taskCount) {
+            this.taskCount = taskCount;
+        }
+
+        // Грубая оценка: занятая куча, деленная на число задач
+        public long heapPerTask() {
+            int tasks = taskCount.getAsInt();
+            if (tasks == 0) return 0;
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / tasks;
+        }
+
+        private static void register(String name, Object mbean) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(name);
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(mbean instanceof DynamicMBean ? mbean
+                            : new StandardMBean((TimerMBean) mbean, TimerMBean.class), objectName);
+                }
+            } catch (JMException e) {
+                // Без JMX метрики по-прежнему пишутся в metrics.txt
+            }
+        }
+
+        public void dump(Path target) throws IOException {
+            StringBuilder out = new StringBuilder(4096);
+            out.append("# ").append(LocalDateTime.now().withNano(0)).append('\n');
+            out.append(String.format("%-28s %10s %10s %10s %10s %10s %10s%n",
+                    "operation", "count", "mean_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms"));
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                Timer timer = entry.getValue();
+                out.append(String.format(Locale.ROOT, "%-28s %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                        entry.getKey(), timer.getCount(), timer.getMeanMillis(), timer.getP50Millis(),
+                        timer.getP90Millis(), timer.getP99Millis(), timer.getMaxMillis()));
+            }
+            for (Counter counter : Counter.values()) {
+                out.append(counter.name().toLowerCase(Locale.ROOT)).append('=').append(get(counter)).append('\n');
+            }
+            out.append("tasks=").append(taskCount.getAsInt()).append('\n');
+            out.append("heap_per_task_bytes=").append(heapPerTask()).append('\n');
+
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.writeString(tmp, out, StandardCharsets.UTF_8);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Счетчики как атрибуты одного MBean: по атрибуту на Counter,
+        // плюс TaskCount и HeapPerTaskBytes
+        private final class CountersMBean implements DynamicMBean {
+            @Override
+            public Object getAttribute(String attribute) throws AttributeNotFoundException {
+                switch (attribute) {
+                    case "TaskCount": return (long) taskCount.getAsInt();
+                    case "HeapPerTaskBytes": return heapPerTask();
+                    default:
+                        for (Counter counter : Counter.values()) {
+                            if (counter.name().equals(attribute)) return get(counter);
+                        }
+                        throw new AttributeNotFoundException(attribute);
+                }
+            }
+
+            @Override
+            public AttributeList getAttributes(String[] attributes) {
+                AttributeList list = new AttributeList();
+                for (String attribute : attributes) {
+                    try {
+                        list.add(new Attribute(attribute, getAttribute(attribute)));
+                    } catch (AttributeNotFoundException e) {
+                        // Неизвестные атрибуты пропускаются
+                    }
+                }
+                return list;
+            }
+
+            @Override
+            public MBeanInfo getMBeanInfo() {
+                List<MBeanAttributeInfo> attributes = new ArrayList<>();
+                for (Counter counter : Counter.values()) {
+                    attributes.add(new MBeanAttributeInfo(counter.name(), "long", counter.name(), true, false, false));
+                }
+                attributes.add(new MBeanAttributeInfo("TaskCount", "long", "Задач в памяти", true, false, false));
+                attributes.add(new MBeanAttributeInfo("HeapPerTaskBytes", "long",
+                        "Оценка занятой кучи на задачу", true, false, false));
+                return new MBeanInfo(getClass().getName(), "Счетчики хранилища TaskPlanner",
+                        attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+            }
+
+            @Override
+            public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+                throw new AttributeNotFoundException(attribute.getName() + " только для чтения");
+            }
+
+            @Override
+            public AttributeList setAttributes(AttributeList attributes) {
+                return new AttributeList();
+            }
+
+            @Override
+            public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+                throw new ReflectionException(new NoSuchMethodException(action));
+            }
+        }
+    }
+
+    // Групповая фиксация журнала для сервера: потоки соединений после изменения
+    // получают номер и ждут, пока фоновый поток не зафиксирует журнал. Все
+    // изменения, накопившиеся за интервал, попадают на диск одним commit().
+    // Если фиксация не удалась, ждавшие ее потоки получают ошибку.
+    static class GroupCommitter implements Closeable {
+        interface Commit {
+            void run() throws IOException;
+        }
+
+        private final Commit commit;
+        private final long intervalMillis;
+        private final Thread thread;
+        private long requested;
+        // Последний номер, для которого фиксация выполнялась, и последний успешно зафиксированный
+        private long attempted;
+        private long committed;
+        // Номера до failedThrough включительно попали в неудачную фиксацию
+        private long failedThrough;
+        private IOException failure;
+        private boolean closed;
+
+        GroupCommitter(Commit commit, long intervalMillis) {
+            this.commit = commit;
+            this.intervalMillis = intervalMillis;
+            this.thread = new Thread(this::loop, "group-commit");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        // Вызывается после записи в журнал; возвращает номер для await()
+        public synchronized long request() {
+            notifyAll();
+            return ++requested;
+        }
+
+        // Ждет фиксации изменения с номером ticket. Если ее уже обогнала
+        // успешная фиксация более поздних изменений, изменение тоже на диске
+        public synchronized void await(long ticket) throws InterruptedException, IOException {
+            while (committed < ticket && failedThrough < ticket && !closed) {
+                wait();
+            }
+            if (committed < ticket && failedThrough >= ticket) {
+                throw new IOException("журнал не зафиксирован: " + failure.getMessage(), failure);
+            }
+        }
+
+        private void loop() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (requested == attempted && !closed) wait();
+                        if (closed && requested == attempted) return;
+                    }
+                    Thread.sleep(intervalMillis);
+
+                    long target;
+                    synchronized (this) {
+                        target = requested;
+                    }
+                    IOException error = null;
+                    try {
+                        commit.run();
+                    } catch (IOException e) {
+                        System.out.println("❌ Ошибка записи в журнал: " + e.getMessage());
+                        error = e;
+                    }
+                    synchronized (this) {
+                        attempted = target;
+                        if (error == null) {
+                            committed = target;
+                        } else {
+                            failedThrough = target;
+                            failure = error;
+                        }
+                        notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                commit.run();
+            } catch (IOException e) {
+                System.out.println("❌ Ошибка записи в журнал: " + e.getMessage());
+            }
+        }
+    }
+
+    // Основной класс приложения
+    private List<Task> tasks;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // Текстовый индекс заменяется целиком, когда читается сохраненный со снимком
+    private SearchIndex searchIndex = new SearchIndex(this::findTaskById);
+    // Сохраненный индекс читается в фоне с запуска и забирается при первом поиске
+    private Future<SearchIndex> storedSearchIndex;
+    // Значение modifications() на момент последней записи индекса в файл
+    private long searchIndexWritten = -1;
+    private final TaskStatistics statistics = new TaskStatistics();
+    private final UpdatedAtIndex updates = new UpdatedAtIndex();
+    private final CalendarIndex calendar = new CalendarIndex();
+    private final EnumBitmapIndex<Status> statusIndex = new EnumBitmapIndex<>(Status.class, Task::getStatus);
+    private final EnumBitmapIndex<Priority> priorityIndex = new EnumBitmapIndex<>(Priority.class, Task::getPriority);
+    private final TitleTrie titles = new TitleTrie();
+    // Текущая версия задач в неизменяемом дереве: снимок для экспорта и
+    // точка отката для отмены изменений получаются за O(1)
+    private volatile TaskTrie version = TaskTrie.EMPTY;
+    // Версия на момент последнего снятия блокировки записи, т.е. без
+    // наполовину выполненных команд: по ней читают get и filter (см. execute)
+    private volatile TaskTrie published = TaskTrie.EMPTY;
+    // Полные экспорты идут без общей блокировки, но пишут одни и те же файлы
+    private final Object exportLock = new Object();
+    private final Deque<UndoStep> undoSteps = new ArrayDeque<>();
+    private final Deque<UndoStep> redoSteps = new ArrayDeque<>();
+    // Текущая операция: версия до нее и затронутые задачи
+    private String operationLabel;
+    private TaskTrie operationStart;
+    private final Set<Integer> operationIds = new LinkedHashSet<>();
+    // Читается и без блокировки (см. execute)
+    private final Map<Integer, Task> tasksById = new ConcurrentHashMap<>();
+    private final ChangeBus changes = new ChangeBus(Integer.getInteger("taskplanner.eventBuffer", 8192));
+    // Одни метрики на процесс: их MBean регистрируются в JMX один раз
+    static final Metrics METRICS = new Metrics();
+    private final DeadlineScheduler reminders = new DeadlineScheduler(REMIND_HOURS, ZoneId.systemDefault(),
+            DeadlineScheduler.minuteOf(Instant.now()));
+    // Команды из execute() могут приходить из нескольких потоков: изменения
+    // идут под блокировкой записи, чтение - оптимистично, без блокировки
+    private final StampedLock lock = new StampedLock();
+    private final boolean persistent;
+    private static final TaskJournal.SyncPolicy SYNC_POLICY =
+            TaskJournal.SyncPolicy.valueOf(System.getProperty("taskplanner.fsync", "batch").toUpperCase(Locale.ROOT));
+    private final TaskJournal journal = new TaskJournal(new File(JOURNAL_FILE), SYNC_POLICY);
+    private final TombstoneLog tombstones = new TombstoneLog(Paths.get(TOMBSTONES_FILE), SYNC_POLICY);
+    private final PartitionStore partitionStore = new PartitionStore(Paths.get(PARTITION_DIR));
+    // Разделы из манифеста на момент последнего сворачивания журнала
+    private Map<String, PartitionStore.Partition> partitions = new TreeMap<>();
+    // Разделы, задачи которых менялись после последнего сворачивания
+    private final Set<String> dirtyPartitions = new HashSet<>();
+    private boolean rewriteAllPartitions;
+    // Архивные разделы, которые еще не загружены в память
+    private final Set<String> unloadedArchives = new HashSet<>();
+    private volatile boolean archivesPending;
+    private final Scanner scanner;
+    private static final String CSV_FILE = "tasks.csv";
+    private static final String JSON_FILE = "tasks.json";
+    private static final String PARTITION_DIR = "tasks.d";
+    private static final String SEARCH_INDEX_FILE = "search.idx";
+    private static final String JOURNAL_FILE = "tasks.journal";
+    private static final String METRICS_FILE = "metrics.txt";
+    // Инкрементальный экспорт: измененные задачи, удаленные задачи и отметка
+    // времени последнего экспорта
+    private static final String TOMBSTONES_FILE = "tasks.tombstones";
+    private static final String WATERMARK_FILE = "export.watermark";
+    private static final String CHANGES_CSV_FILE = "tasks.changes.csv";
+    private static final String CHANGES_JSON_FILE = "tasks.changes.json";
+    private static final String DELETED_CSV_FILE = "tasks.deleted.csv";
+    private static final String DELETED_JSON_FILE = "tasks.deleted.json";
+    // Файл для выгрузки событий об изменениях; по умолчанию события не выгружаются
+    private static final String EVENTS_FILE = System.getProperty("taskplanner.eventsFile");
+    // Как часто (в секундах) выгружать метрики в metrics.txt; 0 - не выгружать
+    private static final int METRICS_INTERVAL = Integer.getInteger("taskplanner.metricsInterval", 60);
+    // Раздел старше стольких месяцев, в котором все задачи выполнены, считается
+    // архивным и при запуске не загружается; 0 - загружать все разделы
+    private static final int ARCHIVE_MONTHS = Integer.getInteger("taskplanner.archiveMonths", 12);
+    // После скольких записей журнал сворачивается в новый снимок
+    private static final int COMPACT_THRESHOLD =
+            Integer.getInteger("taskplanner.compactAfter", 1000);
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    // Сколько задач показывать в "недавно обновленных" и "самых старых"
+    private static final int RECENT_LIMIT = Integer.getInteger("taskplanner.recentLimit", 10);
+    private static final int OLDEST_LIMIT = Integer.getInteger("taskplanner.oldestLimit", 3);
+    // Как долго сервер собирает изменения перед групповой фиксацией журнала
+    private static final long COMMIT_INTERVAL_MS = Long.getLong("taskplanner.commitIntervalMs", 5);
+    private static final int SERVER_PORT = Integer.getInteger("taskplanner.port", 7070);
+    // За сколько часов до конца дня дедлайна напоминать о задаче
+    private static final int[] REMIND_HOURS = Arrays.stream(System.getProperty("taskplanner.remindHours", "24,1")
+            .split(",")).map(String::trim).filter(h -> !h.isEmpty()).mapToInt(Integer::parseInt).toArray();
+    // Сколько команд скрипта выполняется между фиксациями журнала
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("taskplanner.batchSize", 10000));
+    // Сколько последних операций можно отменить
+    private static final int UNDO_LIMIT = Math.max(0, Integer.getInteger("taskplanner.undoLimit", 50));
+    // Сколько задач показывать на одной странице списка
+    private static final int PAGE_SIZE = Math.max(1, Integer.getInteger("taskplanner.pageSize", 10));
+    // Сколько подсказок показывать при выборе задачи по названию
+    private static final int SUGGESTIONS = Math.max(1, Integer.getInteger("taskplanner.suggestions", 10));
+
+    public TaskPlanner() {
+        this(true);
+    }
+
+    // persistent = false - задачи только в памяти, без снимка и журнала
+    // (используется в нагрузочном тесте)
+    TaskPlanner(boolean persistent) {
+        tasks = new ArrayList<>();
+        scanner = new Scanner(System.in);
+        this.persistent = persistent;
+        METRICS.bindTaskCount(() -> tasks.size());
+        if (persistent) {
+            long started = System.nanoTime();
+            loadState();
+            METRICS.timer("loadState").record(System.nanoTime() - started);
+        }
+        if (EVENTS_FILE != null) {
+            changes.subscribe("events-export", new EventFileExporter(Paths.get(EVENTS_FILE)),
+                    ChangeBus.Overflow.BLOCK, 1024);
+        }
+    }
+
+    // ==================== ОСНОВНЫЕ МЕТОДЫ ====================
+
+    public void run() {
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.println("        📝 ПЛАНИРОВЩИК ЗАДАЧ v1.0");
+        System.out.println("═══════════════════════════════════════════════");
+        startReminders();
+        startMetricsDump();
+
+        while (true) {
+            printMenu();
+            String choice = scanner.nextLine().trim();
+            // Архивы нужны всем пунктам, кроме добавления, ближайших дедлайнов, импорта и выхода
+            if (archivesPending && !Set.of("1", "8", "11", "12", "0").contains(choice)) {
+                loadArchives();
+            }
+
+            // Отмена и повтор сами не отменяются
+            if (!choice.equals("15") && !choice.equals("16")) {
+                beginOperation(MENU_OPERATIONS.getOrDefault(choice, "Изменение"));
+            }
+            switch (choice) {
+                case "1" -> addTask();
+                case "2" -> showAllTasks();
+                case "3" -> editTask();
+                case "4" -> deleteTask();
+                case "5" -> filterTasks();
+                case "6" -> searchTasks();
+                case "7" -> timed("showStatistics", this::showStatistics);
+                case "8" -> timed("showUpcomingTasks", this::showUpcomingTasks);
+                case "9" -> timed("saveToCSV", this::saveToCSV);
+                case "10" -> timed("saveToJSON", this::saveToJSON);
+                case "11" -> timed("loadFromCSV", this::loadFromCSV);
+                case "12" -> timed("loadFromJSON", this::loadFromJSON);
+                case "13" -> bulkUpdateTasks();
+                case "14" -> exportChangesMenu();
+                case "15" -> undoMenu(true);
+                case "16" -> undoMenu(false);
+                case "0" -> {
+                    changes.close();
+                    try {
+                        compactJournal();
+                        System.out.println("👋 До свидания! Все данные сохранены.");
+                    } catch (IOException e) {
+                        System.out.println("❌ Ошибка при сохранении: " + e.getMessage());
+                        System.out.println("👋 До свидания! Изменения остались в журнале " + JOURNAL_FILE + ".");
+                    }
+                    return;
+                }
+                default -> System.out.println("❌ Неверный выбор. Попробуйте снова.");
+            }
+            endOperation();
+
+            if (journal.size() >= COMPACT_THRESHOLD) {
+                try {
+                    compactJournal();
+                } catch (IOException e) {
+                    System.out.println("❌ Ошибка при сворачивании журнала: " + e.getMessage());
+                }
+            }
+
+            System.out.println("\nНажмите Enter для продолжения...");
+            scanner.nextLine();
+        }
+    }
+
+    private void printMenu() {
+        clearScreen();
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.println("                  ГЛАВНОЕ МЕНЮ");
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.println("1. ➕ Добавить новую задачу");
+        System.out.println("2. 👁️  Показать все задачи");
+        System.out.println("3. ✏️  Редактировать задачу");
+        System.out.println("4. ❌ Удалить задачу");
+        System.out.println("5. 🔍 Фильтровать задачи");
+        System.out.println("6. 🔎 Поиск задач");
+        System.out.println("7. 📊 Статистика");
+        System.out.println("8. ⏰ Предстоящие задачи");
+        System.out.println("9. 💾 Сохранить в CSV");
+        System.out.println("10. 💾 Сохранить в JSON");
+        System.out.println("11. 📂 Загрузить из CSV");
+        System.out.println("12. 📂 Загрузить из JSON");
+        System.out.println("13. 🧩 Массовое изменение");
+        System.out.println("14. 📤 Экспорт изменений");
+        System.out.println("15. ↩️  Отменить изменение");
+        System.out.println("16. ↪️  Повторить изменение");
+        System.out.println("0. 🚪 Выход");
+        System.out.println("═══════════════════════════════════════════════");
+        System.out.print("Выберите действие: ");
+    }
+
+    // ==================== ОПЕРАЦИИ С ЗАДАЧАМИ ====================
+
+    private void addTask() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("              ДОБАВЛЕНИЕ НОВОЙ ЗАДАЧИ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        System.out.print("📌 Название задачи: ");
+        String title = scanner.nextLine().trim();
+        if (title.isEmpty()) {
+            System.out.println("❌ Название не может быть пустым!");
+            return;
+        }
+
+        System.out.print("📝 Описание (Enter чтобы пропустить): ");
+        String description = scanner.nextLine().trim();
+
+        Status status = selectStatus();
+        Priority priority = selectPriority();
+        LocalDate deadline = selectDeadline();
+
+        Task task = createTask(title, description, status, priority, deadline);
+        commitJournal();
+
+        System.out.println("\n✅ Задача успешно добавлена!");
+        System.out.println(task);
+    }
+
+    private void showAllTasks() {
+        if (tasks.isEmpty()) {
+            System.out.println("\n📭 Список задач пуст.");
+            return;
+        }
+
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("               ВСЕ ЗАДАЧИ (" + tasks.size() + ")");
+        System.out.println("═══════════════════════════════════════════════");
+
+        showPaged(tasks, (t1, t2) -> {
+            // Сортировка по приоритету
+            int priorityCompare = Integer.compare(
+                    getPriorityValue(t1.getPriority()),
+                    getPriorityValue(t2.getPriority())
+            );
+            if (priorityCompare != 0) return priorityCompare;
+
+            // Сортировка по дедлайну
+            LocalDate d1 = t1.getDeadline() != null ? t1.getDeadline() : LocalDate.MAX;
+            LocalDate d2 = t2.getDeadline() != null ? t2.getDeadline() : LocalDate.MAX;
+            int dateCompare = d1.compareTo(d2);
+            if (dateCompare != 0) return dateCompare;
+
+            // Сортировка по ID
+            return Integer.compare(t1.getId(), t2.getId());
+        });
+
+        statistics.advance(LocalDate.now());
+        int overdueCount = statistics.overdue(LocalDate.now());
+        if (overdueCount > 0) {
+            System.out.println("⚠️  ВНИМАНИЕ: " + overdueCount + " задач просрочено!");
+        }
+    }
+
+    // Постраничный вывод задач. Если задан порядок, сортируется только
+    // видимая страница: первые (page + 1) * PAGE_SIZE задач выбираются
+    // через TopK, а не сортировкой всего списка.
+    private void showPaged(List<Task> source, Comparator<Task> order) {
+        int pages = (source.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        int page = 0;
+
+        while (true) {
+            List<Task> pageTasks = order == null
+                    ? source.subList(page * PAGE_SIZE, Math.min(source.size(), (page + 1) * PAGE_SIZE))
+                    : selectPage(source, order, page);
+
+            // Один "сегодня" на всю страницу, а не LocalDate.now() на каждую задачу
+            LocalDate today = LocalDate.now();
+            StringBuilder sb = new StringBuilder(pageTasks.size() * 512);
+            for (Task task : pageTasks) {
+                task.appendTo(sb, today);
+                sb.append("\n\n");
+            }
+            if (pages > 1) {
+                sb.append("📄 Страница ").append(page + 1).append(" из ").append(pages)
+                        .append(" (задач: ").append(source.size()).append(")\n");
+            }
+            System.out.print(sb);
+
+            if (pages <= 1) return;
+
+            System.out.print("[n] следующая, [p] предыдущая, Enter - закончить просмотр: ");
+            String input = scanner.nextLine().trim().toLowerCase();
+            if (input.equals("n") || input.equals("т")) {
+                page = Math.min(page + 1, pages - 1);
+            } else if (input.equals("p") || input.equals("з")) {
+                page = Math.max(page - 1, 0);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static List<Task> selectPage(List<Task> source, Comparator<Task> order, int page) {
+        List<Task> top = TopK.select(source, (page + 1) * PAGE_SIZE, order);
+        return top.subList(Math.min(top.size(), page * PAGE_SIZE), top.size());
+    }
+
+    private int getPriorityValue(Priority priority) {
+        return switch (priority) {
+            case HIGH -> 0;
+            case MEDIUM -> 1;
+            case LOW -> 2;
+        };
+    }
+
+    private void editTask() {
+        if (tasks.isEmpty()) {
+            System.out.println("\n📭 Нет задач для редактирования.");
+            return;
+        }
+
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("               РЕДАКТИРОВАНИЕ ЗАДАЧИ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        Task task = chooseTask("редактирования");
+        if (task == null) return;
+
+        System.out.println("\nРедактирование задачи:");
+        System.out.println(task);
+
+        System.out.println("\nЧто вы хотите изменить?");
+        System.out.println("1. 📌 Название");
+        System.out.println("2. 📝 Описание");
+        System.out.println("3. 🏷️  Статус");
+        System.out.println("4. ⚡ Приоритет");
+        System.out.println("5. ⏰ Дедлайн");
+        System.out.println("6. ✏️  Все поля");
+        System.out.println("0. ↩️  Отмена");
+        System.out.print("Выберите: ");
+
+        String choice = scanner.nextLine().trim();
+
+        if (choice.equals("0")) {
+            System.out.println("✖️ Редактирование отменено.");
+            return;
+        }
+        if (!choice.matches("[1-6]")) {
+            System.out.println("❌ Неверный выбор.");
+            return;
+        }
+
+        Consumer<Task> change = switch (choice) {
+            case "1" -> {
+                System.out.print("Новое название: ");
+                String newTitle = scanner.nextLine().trim();
+                yield t -> {
+                    if (!newTitle.isEmpty()) {
+                        t.setTitle(newTitle);
+                    }
+                };
+            }
+            case "2" -> {
+                System.out.print("Новое описание: ");
+                String newDescription = scanner.nextLine().trim();
+                yield t -> t.setDescription(newDescription);
+            }
+            case "3" -> {
+                Status newStatus = selectStatus();
+                yield t -> t.setStatus(newStatus);
+            }
+            case "4" -> {
+                Priority newPriority = selectPriority();
+                yield t -> t.setPriority(newPriority);
+            }
+            case "5" -> {
+                LocalDate newDeadline = selectDeadline();
+                yield t -> t.setDeadline(newDeadline);
+            }
+            default -> {
+                System.out.print("Новое название: ");
+                String newTitle = scanner.nextLine().trim();
+
+                System.out.print("Новое описание: ");
+                String newDescription = scanner.nextLine().trim();
+
+                Status newStatus = selectStatus();
+                Priority newPriority = selectPriority();
+                LocalDate newDeadline = selectDeadline();
+                yield t -> {
+                    if (!newTitle.isEmpty()) {
+                        t.setTitle(newTitle);
+                    }
+                    t.setDescription(newDescription);
+                    t.setStatus(newStatus);
+                    t.setPriority(newPriority);
+                    t.setDeadline(newDeadline);
+                };
+            }
+        };
+        updateTask(task, change, choice.equals("3"));
+        commitJournal();
+
+        System.out.println("\n✅ Задача успешно обновлена!");
+        System.out.println(task);
+    }
+
+    private void deleteTask() {
+        if (tasks.isEmpty()) {
+            System.out.println("\n📭 Нет задач для удаления.");
+            return;
+        }
+
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("                 УДАЛЕНИЕ ЗАДАЧИ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        Task task = chooseTask("удаления");
+        if (task == null) return;
+
+        System.out.println("\nВы уверены, что хотите удалить эту задачу?");
+        System.out.println(task);
+        System.out.print("\n(д/н): ");
+
+        String confirm = scanner.nextLine().trim().toLowerCase();
+        if (confirm.equals("д") || confirm.equals("да") || confirm.equals("y") || confirm.equals("yes")) {
+            removeTask(task);
+            commitJournal();
+            System.out.println("✅ Задача успешно удалена!");
+        } else {
+            System.out.println("✖️ Удаление отменено.");
+        }
+    }
+
+    // ==================== ФИЛЬТРАЦИЯ И ПОИСК ====================
+
+    private void bulkUpdateTasks() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("              МАССОВОЕ ИЗМЕНЕНИЕ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        System.out.println("Условия отбора (Enter - без условия):");
+        Status status = selectOptional("Статус", Status.values());
+        Priority priority = selectOptional("Приоритет", Priority.values());
+        LocalDate from = readOptionalDate("Дедлайн с (ДД.ММ.ГГГГ): ");
+        LocalDate to = readOptionalDate("Дедлайн по (ДД.ММ.ГГГГ): ");
+        System.out.print("Текст в названии или описании: ");
+        String text = scanner.nextLine().trim();
+
+        List<Task> selected = selectTasks(status, priority, from, to, text);
+        if (selected.isEmpty()) {
+            System.out.println("📭 Задачи не найдены.");
+            return;
+        }
+        System.out.println("\nОтобрано задач: " + selected.size());
+
+        System.out.println("\nЧто изменить у всех отобранных задач?");
+        System.out.println("1. 🏷️  Статус");
+        System.out.println("2. ⚡ Приоритет");
+        System.out.println("3. ⏰ Дедлайн");
+        System.out.println("0. ↩️  Отмена");
+        System.out.print("Выберите: ");
+
+        String choice = scanner.nextLine().trim();
+        Consumer<Task> change;
+        switch (choice) {
+            case "1" -> {
+                Status newStatus = selectStatus();
+                change = t -> t.setStatus(newStatus);
+            }
+            case "2" -> {
+                Priority newPriority = selectPriority();
+                change = t -> t.setPriority(newPriority);
+            }
+            case "3" -> {
+                LocalDate newDeadline = selectDeadline();
+                change = t -> t.setDeadline(newDeadline);
+            }
+            case "0" -> {
+                System.out.println("✖️ Изменение отменено.");
+                return;
+            }
+            default -> {
+                System.out.println("❌ Неверный выбор.");
+                return;
+            }
+        }
+
+        System.out.print("\nИзменить " + selected.size() + " задач? (д/н): ");
+        String confirm = scanner.nextLine().trim().toLowerCase();
+        if (confirm.equals("д") || confirm.equals("да") || confirm.equals("y") || confirm.equals("yes")) {
+            updateTasks(selected, change, choice.equals("1"));
+            commitJournal();
+            System.out.println("✅ Изменено задач: " + selected.size());
+        } else {
+            System.out.println("✖️ Изменение отменено.");
+        }
+    }
+
+    private void filterTasks() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("                ФИЛЬТРАЦИЯ ЗАДАЧ");
+        System.out.println("═══════════════════════════════════════════════");
 
         System.out.println("Фильтровать по:");
         System.out.println("1. 🏷️  Статусу");
@@ -501,475 +4295,2192 @@ public class TaskPlanner {
         System.out.println("3. ⏰ Сроку выполнения");
         System.out.println("4. 📅 Просроченные задачи");
         System.out.println("5. 🔄 Недавно обновленные");
+        System.out.println("6. 🧮 Запрос");
         System.out.println("0. ↩️  Назад");
         System.out.print("Выберите: ");
 
-        String choice = scanner.nextLine().trim();
-        List<Task> filteredTasks = new ArrayList<>();
+        String choice = scanner.nextLine().trim();
+        List<Task> filteredTasks = new ArrayList<>();
+
+        switch (choice) {
+            case "1" -> {
+                Status status = selectStatus();
+                for (Task task : tasks) {
+                    if (task.getStatus() == status) {
+                        filteredTasks.add(task);
+                    }
+                }
+                System.out.println("\n📋 Задачи со статусом: " + status);
+            }
+            case "2" -> {
+                Priority priority = selectPriority();
+                for (Task task : tasks) {
+                    if (task.getPriority() == priority) {
+                        filteredTasks.add(task);
+                    }
+                }
+                System.out.println("\n📋 Задачи с приоритетом: " + priority);
+            }
+            case "3" -> {
+                System.out.println("Срок выполнения:");
+                System.out.println("1. 📅 На сегодня");
+                System.out.println("2. ⏳ На этой неделе");
+                System.out.println("3. 📆 В этом месяце");
+                System.out.println("4. 🗓️  Без дедлайна");
+                System.out.print("Выберите: ");
+
+                String deadlineChoice = scanner.nextLine().trim();
+                LocalDate now = LocalDate.now();
+
+                switch (deadlineChoice) {
+                    case "1" -> {
+                        filteredTasks = calendar.between(now, now);
+                        System.out.println("\n📋 Задачи на сегодня");
+                    }
+                    case "2" -> {
+                        filteredTasks = calendar.between(now, now.plusDays(7));
+                        System.out.println("\n📋 Задачи на этой неделе");
+                    }
+                    case "3" -> {
+                        filteredTasks = calendar.between(now, now.withDayOfMonth(now.lengthOfMonth()));
+                        System.out.println("\n📋 Задачи в этом месяце");
+                    }
+                    case "4" -> {
+                        for (Task task : tasks) {
+                            if (task.getDeadline() == null) {
+                                filteredTasks.add(task);
+                            }
+                        }
+                        System.out.println("\n📋 Задачи без дедлайна");
+                    }
+                }
+            }
+            case "4" -> {
+                LocalDate today = LocalDate.now();
+                for (Task task : tasks) {
+                    if (task.isOverdue(today)) {
+                        filteredTasks.add(task);
+                    }
+                }
+                System.out.println("\n📋 Просроченные задачи");
+            }
+            case "5" -> {
+                filteredTasks = updates.latest(RECENT_LIMIT);
+                System.out.println("\n📋 Недавно обновленные задачи");
+            }
+            case "6" -> {
+                System.out.println("Например: priority = HIGH and status != DONE and deadline <= month_end and title ~ отчет");
+                System.out.println("Чтобы увидеть план выполнения, начните запрос с explain.");
+                System.out.print("Запрос: ");
+                String text = scanner.nextLine().trim();
+                boolean explain = text.toLowerCase(Locale.ROOT).startsWith("explain");
+                try {
+                    TaskQuery query = TaskQuery.parse(explain ? text.substring("explain".length()) : text, LocalDate.now());
+                    if (explain) {
+                        StringBuilder plan = new StringBuilder();
+                        explainQuery(query, plan);
+                        System.out.print(plan);
+                        return;
+                    }
+                    prepareQuery(query);
+                    filteredTasks = runQuery(query);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("❌ Ошибка в запросе: " + e.getMessage());
+                    return;
+                }
+                System.out.println("\n📋 Результат запроса");
+            }
+            case "0" -> { return; }
+            default -> {
+                System.out.println("❌ Неверный выбор.");
+                return;
+            }
+        }
+
+        if (filteredTasks.isEmpty()) {
+            System.out.println("📭 Задачи не найдены.");
+        } else {
+            System.out.println("Найдено задач: " + filteredTasks.size() + "\n");
+            showPaged(filteredTasks, null);
+        }
+    }
+
+    private void searchTasks() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("                  ПОИСК ЗАДАЧ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        System.out.print("Введите текст для поиска (в названии или описании): ");
+        String query = scanner.nextLine().trim();
+
+        if (query.isEmpty()) {
+            System.out.println("❌ Введите текст для поиска.");
+            return;
+        }
+
+        ensureSearchIndex();
+        List<Task> foundTasks = search(query);
+
+        if (foundTasks.isEmpty()) {
+            System.out.println("🔍 Задачи не найдены.");
+        } else {
+            System.out.println("\n🔍 Найдено задач: " + foundTasks.size() + "\n");
+            showPaged(foundTasks, null);
+        }
+    }
+
+    // ==================== СТАТИСТИКА И ОТЧЕТЫ ====================
+
+    private void showStatistics() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("                  СТАТИСТИКА");
+        System.out.println("═══════════════════════════════════════════════");
+
+        int totalTasks = tasks.size();
+        int doneTasks = statistics.count(Status.DONE);
+        int inProgressTasks = statistics.count(Status.IN_PROGRESS);
+        int todoTasks = statistics.count(Status.TODO);
+        statistics.advance(LocalDate.now());
+        int overdueTasks = statistics.overdue(LocalDate.now());
+        int highPriority = statistics.count(Priority.HIGH);
+        int mediumPriority = statistics.count(Priority.MEDIUM);
+        int lowPriority = statistics.count(Priority.LOW);
+
+        System.out.printf("📊 Всего задач: %d\n", totalTasks);
+        if (totalTasks > 0) {
+            System.out.printf("✅ Выполнено: %d (%.1f%%)\n", doneTasks, doneTasks * 100.0 / totalTasks);
+            System.out.printf("🔄 В процессе: %d (%.1f%%)\n", inProgressTasks, inProgressTasks * 100.0 / totalTasks);
+            System.out.printf("📝 К выполнению: %d (%.1f%%)\n", todoTasks, todoTasks * 100.0 / totalTasks);
+        } else {
+            System.out.println("✅ Выполнено: 0 (0.0%)");
+            System.out.println("🔄 В процессе: 0 (0.0%)");
+            System.out.println("📝 К выполнению: 0 (0.0%)");
+        }
+        System.out.printf("⏰ Просрочено: %d\n", overdueTasks);
+
+        System.out.println("\n⚡ Распределение по приоритетам:");
+        System.out.printf("🔴 Высокий: %d задач\n", highPriority);
+        System.out.printf("🟡 Средний: %d задач\n", mediumPriority);
+        System.out.printf("🟢 Низкий: %d задач\n", lowPriority);
+
+        // Самые старые невыполненные задачи
+        List<Task> oldestTasks = statistics.oldestUnfinished(OLDEST_LIMIT);
+        if (!oldestTasks.isEmpty()) {
+            System.out.println("\n📅 Самые старые невыполненные задачи:");
+            for (Task task : oldestTasks) {
+                System.out.printf("• ID %d: %s (создано: %s)\n",
+                        task.getId(), task.getTitle(),
+                        task.getCreatedAt().format(DATE_FORMATTER));
+            }
+        }
+    }
+
+    private void showUpcomingTasks() {
+        System.out.println("\n═══════════════════════════════════════════════");
+        System.out.println("             ПРЕДСТОЯЩИЕ ЗАДАЧИ");
+        System.out.println("═══════════════════════════════════════════════");
+
+        // Дни уже сгруппированы в календарном индексе: читаем только неделю
+        LocalDate today = LocalDate.now();
+        SortedMap<LocalDate, List<Task>> tasksByDay = calendar.window(today, today.plusDays(7),
+                task -> task.getStatus() != Status.DONE && task.getStatus() != Status.CANCELLED);
+        int count = 0;
+        for (List<Task> day : tasksByDay.values()) {
+            count += day.size();
+        }
+
+        if (count == 0) {
+            System.out.println("🎉 Нет предстоящих задач на ближайшую неделю!");
+        } else {
+            System.out.println("📅 Задачи на ближайшую неделю (" + count + "):\n");
+
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<LocalDate, List<Task>> entry : tasksByDay.entrySet()) {
+                sb.append("📅 ");
+                DATE_FORMATTER.formatTo(entry.getKey(), sb);
+                sb.append(":\n");
+                for (Task task : entry.getValue()) {
+                    sb.append("   • [ID ").append(task.getId()).append("] ").append(task.getTitle())
+                            .append(" (").append(task.getPriority()).append(", ").append(task.getStatus()).append(")\n");
+                }
+                sb.append('\n');
+            }
+            System.out.print(sb);
+        }
+    }
+
+    // ==================== СОХРАНЕНИЕ И ЗАГРУЗКА ====================
+
+    private void saveToCSV() {
+        try {
+            int saved = writeCSV();
+
+            System.out.println("✅ Данные сохранены в файл: " + CSV_FILE);
+            System.out.println("📊 Сохранено задач: " + saved);
+
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при сохранении в CSV: " + e.getMessage());
+        }
+    }
+
+    // Пишет снимок текущей версии; возвращает число выгруженных задач
+    private int writeCSV() throws IOException {
+        Collection<Task> snapshot = snapshot().values();
+        writeCSV(Paths.get(CSV_FILE), snapshot);
+        return snapshot.size();
+    }
+
+    // Записывает задачи во временный файл и атомарно заменяет им target
+    private static void writeCSV(Path target, Collection<Task> tasks) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        try (TaskFileWriter writer = new TaskFileWriter(tmp)) {
+            writer.buffer().append("ID;Название;Описание;Статус;Приоритет;Дедлайн;Создано;Обновлено\n");
+
+            for (Task task : tasks) {
+                TaskEncoder.appendCSV(writer.buffer(), task);
+                writer.buffer().append('\n');
+                writer.endRecord();
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        METRICS.add(Metrics.Counter.CSV_ROWS_WRITTEN, tasks.size());
+        METRICS.add(Metrics.Counter.CSV_BYTES_WRITTEN, Files.size(target));
+    }
+
+    // Сворачивает журнал: измененные разделы снимка переписываются, журнал очищается
+    private void compactJournal() throws IOException {
+        if (!persistent) return;
+        tombstones.commit();
+        journal.commit();
+        long started = System.nanoTime();
+
+        Map<String, List<Task>> byKey = new TreeMap<>();
+        for (Task task : tasks) {
+            byKey.computeIfAbsent(PartitionStore.key(task.getDeadline()), k -> new ArrayList<>()).add(task);
+        }
+
+        Set<String> rewrite = new TreeSet<>(dirtyPartitions);
+        if (rewriteAllPartitions) {
+            rewrite.addAll(byKey.keySet());
+            rewrite.addAll(partitions.keySet());
+        }
+        Map<String, List<Task>> changed = new TreeMap<>();
+        int rows = 0;
+        for (String key : rewrite) {
+            List<Task> partition = byKey.getOrDefault(key, List.of());
+            changed.put(key, partition);
+            rows += partition.size();
+        }
+
+        // Незагруженные архивы не менялись и остаются в манифесте как были
+        Map<String, PartitionStore.Partition> manifest = new TreeMap<>();
+        for (String key : unloadedArchives) {
+            manifest.put(key, partitions.get(key));
+        }
+        for (Map.Entry<String, List<Task>> entry : byKey.entrySet()) {
+            manifest.put(entry.getKey(), new PartitionStore.Partition(entry.getKey(), entry.getValue().size(),
+                    isArchive(entry.getKey(), entry.getValue())));
+        }
+
+        long bytes = partitionStore.save(changed, new PartitionStore.Manifest(nextId.get(), manifest));
+        saveSearchIndex();
+        journal.truncate();
+        partitions = manifest;
+        dirtyPartitions.clear();
+        rewriteAllPartitions = false;
+        METRICS.timer("compactJournal").record(System.nanoTime() - started);
+        METRICS.add(Metrics.Counter.SNAPSHOT_ROWS_WRITTEN, rows);
+        METRICS.add(Metrics.Counter.SNAPSHOT_BYTES_WRITTEN, bytes);
+    }
+
+    // Индекс пишется вместе со снимком, если он построен и менялся. Это
+    // производные данные: без файла индекс просто построится заново.
+    private void saveSearchIndex() {
+        if (!searchIndex.isBuilt() || searchIndex.modifications() == searchIndexWritten) return;
+        try {
+            searchIndex.write(Paths.get(PARTITION_DIR, SEARCH_INDEX_FILE));
+            searchIndexWritten = searchIndex.modifications();
+        } catch (IOException e) {
+            System.out.println("⚠️  Текстовый индекс не сохранен: " + e.getMessage());
+        }
+    }
+
+    // Архивный раздел - месяц старше ARCHIVE_MONTHS, все задачи которого выполнены.
+    // Отмененные задачи считаются просроченными, поэтому такой раздел остается активным.
+    private static boolean isArchive(String key, List<Task> partition) {
+        if (ARCHIVE_MONTHS <= 0 || key.equals(PartitionStore.NO_DEADLINE)) return false;
+        if (!YearMonth.parse(key).isBefore(YearMonth.now().minusMonths(ARCHIVE_MONTHS))) return false;
+        for (Task task : partition) {
+            if (task.getStatus() != Status.DONE) return false;
+        }
+        return true;
+    }
+
+    // Вызывается для раздела задачи до и после изменения. Изменение в
+    // незагруженном архиве сначала загружает архивы: иначе раздел
+    // перепишется без них.
+    private void markDirty(LocalDate deadline) {
+        String key = PartitionStore.key(deadline);
+        if (unloadedArchives.contains(key)) loadArchives();
+        dirtyPartitions.add(key);
+    }
+
+    // Догружает архивные разделы, пропущенные при запуске
+    private void loadArchives() {
+        if (!archivesPending) return;
+        try {
+            List<Task> archived = partitionStore.load(unloadedArchives);
+            int added = 0;
+            for (Task task : archived) {
+                if (tasksById.containsKey(task.getId())) continue;
+                tasks.add(task);
+                index(task);
+                added++;
+            }
+            tasks.sort(Comparator.comparingInt(Task::getId));
+            version = TaskTrie.of(tasks);
+            METRICS.add(Metrics.Counter.SNAPSHOT_ROWS_READ, archived.size());
+            System.out.println("📦 Загружено задач из архива: " + added);
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при загрузке архива: " + e.getMessage());
+            // Без архивов разделы нельзя переписывать целиком: на диске они остаются как были
+            return;
+        }
+        unloadedArchives.clear();
+        archivesPending = false;
+    }
+
+    // Импорт заменяет все задачи, включая незагруженные архивы. Время
+    // изменения импортированных задач ничего не говорит о прошлом экспорте,
+    // поэтому следующий инкрементальный экспорт будет полным. Планировщик
+    // без снимка (замеры) файлы экспорта в текущем каталоге не трогает.
+    private void replaceAllTasks() {
+        clearUndo();
+        unloadedArchives.clear();
+        archivesPending = false;
+        rewriteAllPartitions = true;
+        // updatedAt импортированных задач не говорит, совпадает ли их текст
+        // с сохраненным индексом, поэтому индекс строится заново
+        searchIndex.clear();
+        storedSearchIndex = null;
+        if (!persistent) return;
+        try {
+            Files.deleteIfExists(Paths.get(PARTITION_DIR, SEARCH_INDEX_FILE));
+            Files.deleteIfExists(Paths.get(WATERMARK_FILE));
+            tombstones.prune(null);
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при сбросе отметки экспорта: " + e.getMessage());
+        }
+    }
+
+    // Нужны ли запросу архивные разделы: в них только выполненные задачи
+    // с дедлайнами в архивных месяцах
+    private boolean needsArchives(TaskQuery query) {
+        if (!archivesPending) return false;
+        List<Status> statuses = query.statuses();
+        if (statuses != null && !statuses.contains(Status.DONE)) return false;
+        if (!query.hasDeadlineRange()) return true;
+        for (String key : unloadedArchives) {
+            YearMonth month = YearMonth.parse(key);
+            if (!month.atEndOfMonth().isBefore(query.from()) && !month.atDay(1).isAfter(query.to())) return true;
+        }
+        return false;
+    }
+
+    // Загружает последнее сохраненное состояние: разделы снимка из tasks.d
+    // (или tasks.csv, если разделов еще нет) и журнал изменений поверх них
+    private void loadState() {
+        boolean loaded = partitionStore.exists() && loadPartitions();
+
+        if (!loaded) {
+            if (new File(CSV_FILE).exists()) {
+                if (!partitionStore.exists()) {
+                    System.out.println("📂 Снимок " + PARTITION_DIR + " не найден. Загружаем " + CSV_FILE + ".");
+                } else {
+                    System.out.println("⚠️  Загружаем " + CSV_FILE + " вместо поврежденного снимка.");
+                }
+                readCSV();
+            } else {
+                System.out.println("📂 Сохраненных задач нет. Будет создан новый снимок в " + PARTITION_DIR + ".");
+            }
+            // Задачи прочитаны не из разделов: при сворачивании журнала они пишутся заново
+            rewriteAllPartitions = true;
+        }
+
+        replayJournal();
+        rebuildIndexes();
+        published = version;
+        Path indexFile = Paths.get(PARTITION_DIR, SEARCH_INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            storedSearchIndex = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return SearchIndex.read(indexFile, this::findTaskById);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        System.out.println("📊 Загружено задач: " + tasks.size());
+    }
+
+    // Читает разделы из манифеста параллельно. Архивные разделы пропускаются,
+    // если журнал пуст; иначе записи журнала могут относиться к ним.
+    private boolean loadPartitions() {
+        try {
+            PartitionStore.Manifest manifest = partitionStore.readManifest();
+            boolean eager = new File(JOURNAL_FILE).length() > 0;
+            List<String> keys = new ArrayList<>();
+            for (PartitionStore.Partition partition : manifest.partitions().values()) {
+                if (partition.archived() && !eager) {
+                    unloadedArchives.add(partition.key());
+                } else {
+                    keys.add(partition.key());
+                }
+            }
+            List<Task> loaded = partitionStore.load(keys);
+
+            // После сбоя во время сворачивания задача может оказаться в двух
+            // разделах: остается более поздняя версия
+            List<Task> unique = new ArrayList<>(loaded.size());
+            for (Task task : loaded) {
+                int last = unique.size() - 1;
+                if (last >= 0 && unique.get(last).getId() == task.getId()) {
+                    if (task.getUpdatedAt().isAfter(unique.get(last).getUpdatedAt())) unique.set(last, task);
+                } else {
+                    unique.add(task);
+                }
+            }
+
+            tasks = unique;
+            nextId.set(manifest.nextId());
+            partitions = manifest.partitions();
+            archivesPending = !unloadedArchives.isEmpty();
+            METRICS.add(Metrics.Counter.SNAPSHOT_ROWS_READ, loaded.size());
+            System.out.println("✅ Данные загружены из " + PARTITION_DIR + ": разделов " + keys.size()
+                    + (archivesPending ? ", архивных разделов не загружено: " + unloadedArchives.size() : ""));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("❌ Ошибка при загрузке разделов снимка: " + e.getMessage());
+            unloadedArchives.clear();
+            return false;
+        }
+    }
+
+    // Импорт из CSV: заменяет все задачи содержимым tasks.csv
+    private void loadFromCSV() {
+        if (!new File(CSV_FILE).exists()) {
+            System.out.println("📂 Файл " + CSV_FILE + " не найден.");
+            return;
+        }
+
+        if (readCSV()) {
+            replaceAllTasks();
+            rebuildIndexes();
+            changes.publish(ChangeBus.Type.RELOADED, 0, null, null);
+            try {
+                // Импорт заменяет все задачи, поэтому старый журнал к ним уже не относится
+                compactJournal();
+            } catch (IOException e) {
+                System.out.println("❌ Ошибка при сохранении снимка: " + e.getMessage());
+            }
+            System.out.println("📊 Загружено задач: " + tasks.size());
+        }
+    }
+
+    private boolean readCSV() {
+        try {
+            CsvTaskLoader.Result result = new CsvTaskLoader(Charset.defaultCharset()).load(Paths.get(CSV_FILE));
+            METRICS.add(Metrics.Counter.CSV_ROWS_READ, result.tasks.size());
+            METRICS.add(Metrics.Counter.CSV_BYTES_READ, Files.size(Paths.get(CSV_FILE)));
+            METRICS.add(Metrics.Counter.CSV_PARSE_ERRORS, result.errors.size());
+
+            for (CsvTaskLoader.ParseError error : result.errors) {
+                System.out.println("⚠️  Ошибка при чтении строки " + error.line + ": " + error.text);
+                System.out.println("    Причина: " + error.reason);
+            }
+
+            tasks = result.tasks;
+            nextId.set(result.maxId + 1);
+
+            System.out.println("✅ Данные загружены из файла: " + CSV_FILE);
+            return true;
+
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при загрузке из CSV: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Задача из записи журнала ADD/EDIT: поля как в CSV, текст экранирован;
+    // null, если в записи не хватает полей
+    private static Task parseJournalTask(String line) {
+        String[] parts = line.split(";", -1);
+        if (parts.length < 8) return null;
+        parts[1] = TaskEncoder.unescape(parts[1]);
+        parts[2] = TaskEncoder.unescape(parts[2]);
+        return new Task(Integer.parseInt(parts[0]), parts[1], parts[2], Status.valueOf(parts[3]),
+                Priority.valueOf(parts[4]), parts[5].isEmpty() ? null : LocalDate.parse(parts[5]),
+                LocalDateTime.parse(parts[6]), LocalDateTime.parse(parts[7]));
+    }
+
+    // Применяет записи журнала поверх загруженного снимка.
+    // Записи идемпотентны: повторное применение после сбоя во время
+    // сворачивания журнала не меняет результат.
+    private void replayJournal() {
+        List<String> records;
+        try {
+            records = journal.readAll();
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при чтении журнала: " + e.getMessage());
+            return;
+        }
+        if (records.isEmpty()) return;
+
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            positions.put(tasks.get(i).getId(), i);
+        }
+
+        int applied = 0;
+        for (String record : records) {
+            try {
+                String[] parts = record.split(";", 2);
+                switch (parts[0]) {
+                    case "ADD", "EDIT" -> {
+                        Task task = parseJournalTask(parts[1]);
+                        if (task == null) throw new IllegalArgumentException("неполная запись");
+                        Integer pos = positions.get(task.getId());
+                        markDirty(task.getDeadline());
+                        if (pos != null) {
+                            markDirty(tasks.get(pos).getDeadline());
+                            tasks.set(pos, task);
+                        } else {
+                            positions.put(task.getId(), tasks.size());
+                            tasks.add(task);
+                        }
+                        nextId.accumulateAndGet(task.getId() + 1, Math::max);
+                    }
+                    case "STATUS" -> {
+                        String[] fields = parts[1].split(";", -1);
+                        Integer pos = positions.get(Integer.parseInt(fields[0]));
+                        if (pos != null) {
+                            Task old = tasks.get(pos);
+                            markDirty(old.getDeadline());
+                            tasks.set(pos, new Task(old.getId(), old.getTitle(), old.getDescription(),
+                                    Status.valueOf(fields[1]), old.getPriority(), old.getDeadline(),
+                                    old.getCreatedAt(), LocalDateTime.parse(fields[2])));
+                        }
+                    }
+                    case "DELETE" -> {
+                        Integer pos = positions.remove(Integer.parseInt(parts[1]));
+                        if (pos != null) {
+                            markDirty(tasks.get(pos).getDeadline());
+                            tasks.set(pos, null);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("неизвестный тип записи");
+                }
+                applied++;
+            } catch (Exception e) {
+                METRICS.add(Metrics.Counter.JOURNAL_PARSE_ERRORS, 1);
+                System.out.println("⚠️  Ошибка в записи журнала: " + record);
+                System.out.println("    Причина: " + e.getMessage());
+            }
+        }
+        tasks.removeIf(Objects::isNull);
+        METRICS.add(Metrics.Counter.JOURNAL_RECORDS_REPLAYED, applied);
+
+        System.out.println("🔁 Восстановлено изменений из журнала: " + applied);
+    }
+
+    private void saveToJSON() {
+        try {
+            int saved = writeJSON();
+
+            System.out.println("✅ Данные сохранены в файл: " + JSON_FILE);
+            System.out.println("📊 Сохранено задач: " + saved);
+
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при сохранении в JSON: " + e.getMessage());
+        }
+    }
+
+    private int writeJSON() throws IOException {
+        Collection<Task> snapshot = snapshot().values();
+        writeJSON(Paths.get(JSON_FILE), snapshot);
+        return snapshot.size();
+    }
+
+    private static void writeJSON(Path target, Collection<Task> tasks) throws IOException {
+        try (TaskFileWriter writer = new TaskFileWriter(target)) {
+            writer.buffer().append("[\n");
+
+            int left = tasks.size();
+            for (Task task : tasks) {
+                TaskEncoder.appendJSON(writer.buffer(), task);
+                writer.buffer().append(--left > 0 ? ",\n" : "\n");
+                writer.endRecord();
+            }
+
+            writer.buffer().append("]\n");
+        }
+        METRICS.add(Metrics.Counter.JSON_ROWS_WRITTEN, tasks.size());
+        METRICS.add(Metrics.Counter.JSON_BYTES_WRITTEN, Files.size(target));
+    }
+
+    // ==================== ИНКРЕМЕНТАЛЬНЫЙ ЭКСПОРТ ====================
+
+    record ExportResult(int changed, int deleted, LocalDateTime watermark) {}
+
+    // Выгружает задачи, измененные после прошлого экспорта (по индексу
+    // updatedAt, без обхода неизмененных задач), и отметки об удалении.
+    // Новая отметка - самое позднее выгруженное изменение; она сохраняется
+    // только после записи обоих файлов. Без отметки экспорт полный, а
+    // отметки об удалении не нужны.
+    private ExportResult exportChanges(boolean json) throws IOException {
+        long started = System.nanoTime();
+        LocalDateTime watermark = readWatermark();
+        Collection<Task> changed = watermark != null ? updates.changedAfter(watermark) : snapshot().values();
+        List<TombstoneLog.Tombstone> deleted = watermark != null ? tombstones.after(watermark) : List.of();
+        // Отметка фиксируется раньше журнала, поэтому после сбоя она может
+        // остаться у задачи, удаление которой не дошло до журнала; такие
+        // задачи (как и возвращенные отменой) не выгружаются как удаленные
+        if (!deleted.isEmpty()) {
+            deleted = new ArrayList<>(deleted);
+            deleted.removeIf(tombstone -> tasksById.containsKey(tombstone.id()));
+        }
+
+        LocalDateTime next = watermark;
+        if (watermark != null) {
+            // Индекс упорядочен по времени: последняя задача - самая поздняя
+            if (!changed.isEmpty()) next = updates.latest(1).get(0).getUpdatedAt();
+        } else {
+            for (Task task : changed) {
+                if (next == null || task.getUpdatedAt().isAfter(next)) next = task.getUpdatedAt();
+            }
+        }
+        for (TombstoneLog.Tombstone tombstone : deleted) {
+            if (next == null || tombstone.deletedAt().isAfter(next)) next = tombstone.deletedAt();
+        }
+
+        if (json) {
+            writeJSON(Paths.get(CHANGES_JSON_FILE), changed);
+        } else {
+            writeCSV(Paths.get(CHANGES_CSV_FILE), changed);
+        }
+        writeTombstones(Paths.get(json ? DELETED_JSON_FILE : DELETED_CSV_FILE), deleted, json);
+        if (next != null) {
+            Path tmp = Paths.get(WATERMARK_FILE + ".tmp");
+            Files.writeString(tmp, next + "\n", StandardCharsets.UTF_8);
+            Files.move(tmp, Paths.get(WATERMARK_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        tombstones.prune(next);
+        METRICS.timer("exportChanges").record(System.nanoTime() - started);
+        return new ExportResult(changed.size(), deleted.size(), next);
+    }
+
+    private static LocalDateTime readWatermark() throws IOException {
+        Path file = Paths.get(WATERMARK_FILE);
+        if (!Files.exists(file)) return null;
+        String text = Files.readString(file, StandardCharsets.UTF_8).trim();
+        try {
+            return LocalDateTime.parse(text);
+        } catch (DateTimeException e) {
+            throw new IOException("неверная отметка экспорта в " + WATERMARK_FILE + ": " + text);
+        }
+    }
+
+    private static void writeTombstones(Path target, List<TombstoneLog.Tombstone> deleted, boolean json) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        try (TaskFileWriter writer = new TaskFileWriter(tmp)) {
+            writer.buffer().append(json ? "[\n" : "ID;Удалено\n");
+            for (int i = 0; i < deleted.size(); i++) {
+                TombstoneLog.Tombstone tombstone = deleted.get(i);
+                if (json) {
+                    TaskEncoder.appendTombstoneJSON(writer.buffer(), tombstone.id(), tombstone.deletedAt());
+                    writer.buffer().append(i < deleted.size() - 1 ? ",\n" : "\n");
+                } else {
+                    TaskEncoder.appendTombstoneCSV(writer.buffer(), tombstone.id(), tombstone.deletedAt());
+                    writer.buffer().append('\n');
+                }
+                writer.endRecord();
+            }
+            if (json) writer.buffer().append("]\n");
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void exportChangesMenu() {
+        System.out.print("Формат (1 - CSV, 2 - JSON): ");
+        boolean json = scanner.nextLine().trim().equals("2");
+        try {
+            ExportResult result = exportChanges(json);
+            commitJournal();
+            System.out.println("✅ Изменения сохранены в файл: " + (json ? CHANGES_JSON_FILE : CHANGES_CSV_FILE));
+            System.out.println("✅ Удаления сохранены в файл: " + (json ? DELETED_JSON_FILE : DELETED_CSV_FILE));
+            System.out.println("📊 Изменено задач: " + result.changed() + ", удалено: " + result.deleted());
+            if (result.watermark() != null) {
+                System.out.println("🔖 Следующий экспорт - изменения после " + result.watermark().format(Task.TIME_FORMAT));
+            }
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при экспорте изменений: " + e.getMessage());
+        }
+    }
+
+    private void loadFromJSON() {
+        File file = new File(JSON_FILE);
+        if (!file.exists()) {
+            System.out.println("📂 Файл " + JSON_FILE + " не найден.");
+            return;
+        }
+
+        try (JsonTaskReader reader = new JsonTaskReader(new BufferedReader(new FileReader(JSON_FILE)))) {
+            List<Task> loadedTasks = new ArrayList<>();
+            int maxId = 0;
+            int objects = 0;
+            Map<String, String> fields;
 
-        switch (choice) {
-            case "1" -> {
-                Status status = selectStatus();
-                for (Task task : tasks) {
-                    if (task.getStatus() == status) {
-                        filteredTasks.add(task);
+            while ((fields = reader.nextObject()) != null) {
+                objects++;
+                try {
+                    int id = Integer.parseInt(fields.get("id"));
+                    String title = fields.get("title");
+                    String description = fields.getOrDefault("description", "");
+                    Status status = Status.valueOf(fields.get("status"));
+                    Priority priority = Priority.valueOf(fields.get("priority"));
+
+                    LocalDate deadline = null;
+                    String deadlineStr = fields.get("deadline");
+                    if (deadlineStr != null && !deadlineStr.isEmpty()) {
+                        deadline = LocalDate.parse(deadlineStr);
                     }
+
+                    LocalDateTime createdAt = LocalDateTime.parse(fields.get("createdAt"));
+                    LocalDateTime updatedAt = LocalDateTime.parse(fields.get("updatedAt"));
+
+                    if (title == null) throw new IllegalArgumentException("нет названия");
+                    if (description == null) description = "";
+
+                    Task task = new Task(id, title, description, status, priority, deadline, createdAt, updatedAt);
+                    loadedTasks.add(task);
+                    maxId = Math.max(maxId, id);
+
+                } catch (Exception e) {
+                    METRICS.add(Metrics.Counter.JSON_PARSE_ERRORS, 1);
+                    System.out.println("⚠️  Ошибка при парсинге объекта JSON: " + fields);
+                    System.out.println("    Причина: " + e.getMessage());
                 }
-                System.out.println("\n📋 Задачи со статусом: " + status);
             }
-            case "2" -> {
-                Priority priority = selectPriority();
-                for (Task task : tasks) {
-                    if (task.getPriority() == priority) {
-                        filteredTasks.add(task);
-                    }
+
+            METRICS.add(Metrics.Counter.JSON_ROWS_READ, loadedTasks.size());
+            METRICS.add(Metrics.Counter.JSON_BYTES_READ, file.length());
+            if (objects == 0) {
+                System.out.println("✅ Файл JSON пуст.");
+                return;
+            }
+
+            tasks = loadedTasks;
+            nextId.set(maxId + 1);
+            replaceAllTasks();
+            rebuildIndexes();
+            changes.publish(ChangeBus.Type.RELOADED, 0, null, null);
+            // Импорт заменяет все задачи, поэтому старый журнал к ним уже не относится
+            compactJournal();
+
+            System.out.println("✅ Данные загружены из файла: " + JSON_FILE);
+            System.out.println("📊 Загружено задач: " + tasks.size());
+
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка при загрузке из JSON: " + e.getMessage());
+        }
+    }
+
+    // ==================== ПАКЕТНЫЙ РЕЖИМ ====================
+
+    // Выполняет команды из скрипта без меню. Одна команда на строку, поля через ';':
+    //   add;Название;Описание;СТАТУС;ПРИОРИТЕТ;ГГГГ-ММ-ДД  (поля после названия необязательны)
+    //   edit;ID;title|description|status|priority|deadline;значение
+    //   bulk;условие=значение,...;status|priority|deadline;значение
+    //     (условия: status, priority, from, to, text)
+    //   delete;ID
+    //   get;ID
+    //   filter;status;СТАТУС | filter;priority;ПРИОРИТЕТ | filter;overdue
+    //   filter;deadline;ГГГГ-ММ-ДД;ГГГГ-ММ-ДД
+    //   search;текст
+    //   suggest;начало названия  (подсказки с учетом опечаток)
+    //   query;запрос | explain;запрос  (язык запросов - см. TaskQuery)
+    //   stats
+    //   export;csv|json  (export;csv|json;changes - только изменения с прошлого экспорта)
+    //   undo | redo
+    //   commit
+    // Пустые строки и строки, начинающиеся с '#', пропускаются. Журнал
+    // фиксируется один раз на пакет из BATCH_SIZE команд (или по команде commit).
+    public void runScript(BufferedReader in) throws IOException {
+        long started = System.nanoTime();
+        StringBuilder out = new StringBuilder();
+        long commands = 0;
+        long errors = 0;
+        long lineNumber = 0;
+        int inBatch = 0;
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            if (line.equals("commit")) {
+                flushBatch(out);
+                inBatch = 0;
+                continue;
+            }
+
+            try {
+                out.append(execute(line));
+                commands++;
+            } catch (IllegalArgumentException | DateTimeException | IOException e) {
+                errors++;
+                out.append("❌ Строка ").append(lineNumber).append(": ").append(line)
+                        .append("\n    Причина: ").append(e.getMessage()).append('\n');
+            }
+
+            if (++inBatch >= BATCH_SIZE) {
+                flushBatch(out);
+                inBatch = 0;
+            }
+        }
+        flushBatch(out);
+
+        if (journal.size() >= COMPACT_THRESHOLD) {
+            long stamp = lock.writeLock();
+            try {
+                compactJournal();
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("📊 Выполнено команд: %d (ошибок: %d) за %.3f с, %.0f команд/с%n",
+                commands, errors, seconds, commands / Math.max(seconds, 1e-9));
+    }
+
+    private void flushBatch(StringBuilder out) {
+        commit();
+        System.out.print(out);
+        out.setLength(0);
+    }
+
+    // Фиксирует журнал; безопасно вызывать из нескольких потоков
+    public void commit() {
+        long stamp = lock.writeLock();
+        try {
+            commitJournal();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    // Выполняет одну команду (формат как в runScript) и возвращает ее вывод.
+    // Безопасно вызывать из нескольких потоков. Изменения идут под блокировкой
+    // записи. get и filter по статусу, приоритету и просрочке читают
+    // опубликованную версию (published) и не ждут никого. Остальные команды
+    // чтения выполняются оптимистично: без блокировки, по структурам, которые
+    // можно читать во время записи, после чего проверяется, не было ли за это
+    // время записи. Если была, вывод отбрасывается и команда повторяется; после
+    // нескольких неудач, а также когда команде нужны архивы или еще не
+    // построенный индекс, она выполняется под блокировкой.
+    public String execute(String line) throws IOException {
+        String[] parts = line.split(";", -1);
+        long started = System.nanoTime();
+        try {
+            return executeLocked(parts);
+        } finally {
+            // Имена команд приходят от клиентов, поэтому таймеры заводятся только на известные
+            METRICS.timer(COMMANDS.contains(parts[0]) ? "command." + parts[0] : "command.unknown")
+                    .record(System.nanoTime() - started);
+        }
+    }
+
+    private static final Set<String> COMMANDS = Set.of("add", "edit", "bulk", "delete", "get", "filter",
+            "search", "suggest", "query", "explain", "stats", "export", "undo", "redo");
+
+    private String executeLocked(String[] parts) throws IOException {
+        StringBuilder out = new StringBuilder();
+
+        // Полный экспорт пишет снимок версии и не держит блокировку, пока пишется файл
+        if (parts[0].equals("export") && !field(parts, 2, "").equals("changes")) {
+            if (archivesPending) {
+                long stamp = lock.writeLock();
+                try {
+                    loadArchives();
+                } finally {
+                    unlockWrite(stamp);
                 }
-                System.out.println("\n📋 Задачи с приоритетом: " + priority);
             }
-            case "3" -> {
-                System.out.println("Срок выполнения:");
-                System.out.println("1. 📅 На сегодня");
-                System.out.println("2. ⏳ На этой неделе");
-                System.out.println("3. 📆 В этом месяце");
-                System.out.println("4. 🗓️  Без дедлайна");
-                System.out.print("Выберите: ");
+            executeCommand(parts, out);
+            return out.toString();
+        }
 
-                String deadlineChoice = scanner.nextLine().trim();
-                LocalDate now = LocalDate.now();
+        if (!isReadCommand(parts[0])) {
+            changes.awaitCapacity();
+            long stamp = lock.writeLock();
+            try {
+                statistics.advance(LocalDate.now());
+                // Новая задача не трогает архивы, если только ее дедлайн не в архивном месяце
+                if (!parts[0].equals("add")) loadArchives();
+                if (!parts[0].equals("undo") && !parts[0].equals("redo")) beginOperation(String.join(";", parts));
+                try {
+                    executeCommand(parts, out);
+                } finally {
+                    endOperation();
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+            return out.toString();
+        }
 
-                switch (deadlineChoice) {
-                    case "1" -> {
-                        for (Task task : tasks) {
-                            if (task.getDeadline() != null && task.getDeadline().equals(now)) {
-                                filteredTasks.add(task);
-                            }
-                        }
-                        System.out.println("\n📋 Задачи на сегодня");
+        if (readsSnapshot(parts)) {
+            executeCommand(parts, out);
+            return out.toString();
+        }
+
+        // Во время записи структуры могут быть видны наполовину измененными,
+        // и чтение может упасть: исключение считается ошибкой команды, только
+        // если записи за это время не было
+        if (!needsPreparation(parts)) {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp == 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                try {
+                    executeCommand(parts, out);
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp)) throw e;
+                }
+                if (lock.validate(stamp)) return out.toString();
+                out.setLength(0);
+            }
+            METRICS.add(Metrics.Counter.OPTIMISTIC_READ_FALLBACKS, 1);
+        }
+
+        // Если команде нужны архивы или еще не построенный индекс, они
+        // готовятся под блокировкой записи, которая затем понижается до
+        // блокировки чтения: между подготовкой и чтением писатель не успеет
+        // сбросить индекс.
+        long stamp = lock.readLock();
+        try {
+            if (needsPreparation(parts)) {
+                long writeStamp = lock.tryConvertToWriteLock(stamp);
+                if (writeStamp == 0) {
+                    lock.unlockRead(stamp);
+                    writeStamp = lock.writeLock();
+                }
+                stamp = writeStamp;
+                prepareRead(parts);
+                published = version;
+                stamp = lock.tryConvertToReadLock(stamp);
+            }
+            executeCommand(parts, out);
+        } finally {
+            lock.unlock(stamp);
+        }
+        return out.toString();
+    }
+
+    // Сколько раз чтение пробует выполниться без блокировки
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    private void unlockWrite(long stamp) {
+        published = version;
+        lock.unlockWrite(stamp);
+    }
+
+    // Команды, которым хватает опубликованной версии задач
+    private boolean readsSnapshot(String[] parts) {
+        if (archivesPending) return false;
+        return switch (parts[0]) {
+            case "get" -> true;
+            case "filter" -> switch (field(parts, 1, "")) {
+                case "status", "priority", "overdue" -> true;
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    private boolean needsPreparation(String[] parts) {
+        if (archivesPending && commandNeedsArchives(parts)) return true;
+        return switch (parts[0]) {
+            case "search" -> !searchIndex.isBuilt();
+            case "query", "explain" -> !searchIndex.isBuilt()
+                    && TaskQuery.parse(field(parts, 1, ""), LocalDate.now()).hasText();
+            case "suggest" -> !titles.isBuilt();
+            default -> false;
+        };
+    }
+
+    // Вызывается под блокировкой записи
+    private void prepareRead(String[] parts) {
+        if (archivesPending && commandNeedsArchives(parts)) loadArchives();
+        switch (parts[0]) {
+            case "search" -> ensureSearchIndex();
+            case "query", "explain" -> prepareQuery(TaskQuery.parse(field(parts, 1, ""), LocalDate.now()));
+            case "suggest" -> ensureTitleIndex();
+            default -> { }
+        }
+    }
+
+    private boolean commandNeedsArchives(String[] parts) {
+        if (parts[0].equals("query") || parts[0].equals("explain")) {
+            return needsArchives(TaskQuery.parse(field(parts, 1, ""), LocalDate.now()));
+        }
+        return true;
+    }
+
+    private static boolean isReadCommand(String command) {
+        return command.equals("get") || command.equals("filter") || command.equals("search") || command.equals("suggest")
+                || command.equals("query") || command.equals("explain") || command.equals("stats");
+    }
+
+    private void executeCommand(String[] parts, StringBuilder out) throws IOException {
+        switch (parts[0]) {
+            case "add" -> {
+                String title = field(parts, 1, "");
+                if (title.isEmpty()) throw new IllegalArgumentException("название не может быть пустым");
+                Status status = parts.length > 3 && !parts[3].isEmpty() ? Status.valueOf(parts[3]) : Status.TODO;
+                Priority priority = parts.length > 4 && !parts[4].isEmpty() ? Priority.valueOf(parts[4]) : Priority.MEDIUM;
+                LocalDate deadline = parts.length > 5 && !parts[5].isEmpty() ? LocalDate.parse(parts[5]) : null;
+                createTask(title, field(parts, 2, ""), status, priority, deadline);
+            }
+            case "edit" -> {
+                Task task = requireTask(parts);
+                String value = field(parts, 3, null);
+                if (value == null) throw new IllegalArgumentException("не указано новое значение");
+                String property = field(parts, 2, "");
+                Consumer<Task> change = switch (property) {
+                    case "title" -> {
+                        if (value.isEmpty()) throw new IllegalArgumentException("название не может быть пустым");
+                        yield t -> t.setTitle(value);
                     }
-                    case "2" -> {
-                        LocalDate endOfWeek = now.plusDays(7);
-                        for (Task task : tasks) {
-                            if (task.getDeadline() != null &&
-                                    !task.getDeadline().isBefore(now) &&
-                                    !task.getDeadline().isAfter(endOfWeek)) {
-                                filteredTasks.add(task);
-                            }
-                        }
-                        System.out.println("\n📋 Задачи на этой неделе");
+                    case "description" -> t -> t.setDescription(value);
+                    case "status" -> {
+                        Status status = Status.valueOf(value);
+                        yield t -> t.setStatus(status);
                     }
-                    case "3" -> {
-                        LocalDate endOfMonth = now.withDayOfMonth(now.lengthOfMonth());
-                        for (Task task : tasks) {
-                            if (task.getDeadline() != null &&
-                                    !task.getDeadline().isBefore(now) &&
-                                    !task.getDeadline().isAfter(endOfMonth)) {
-                                filteredTasks.add(task);
-                            }
-                        }
-                        System.out.println("\n📋 Задачи в этом месяце");
+                    case "priority" -> {
+                        Priority priority = Priority.valueOf(value);
+                        yield t -> t.setPriority(priority);
                     }
-                    case "4" -> {
-                        for (Task task : tasks) {
-                            if (task.getDeadline() == null) {
-                                filteredTasks.add(task);
-                            }
-                        }
-                        System.out.println("\n📋 Задачи без дедлайна");
+                    case "deadline" -> {
+                        LocalDate deadline = value.isEmpty() ? null : LocalDate.parse(value);
+                        yield t -> t.setDeadline(deadline);
+                    }
+                    default -> throw new IllegalArgumentException("неизвестное поле: " + property);
+                };
+                updateTask(task, change, property.equals("status"));
+            }
+            case "bulk" -> {
+                Map<String, String> where = new HashMap<>();
+                for (String condition : field(parts, 1, "").split(",")) {
+                    if (condition.isBlank()) continue;
+                    int eq = condition.indexOf('=');
+                    if (eq < 0) throw new IllegalArgumentException("неверное условие: " + condition);
+                    where.put(condition.substring(0, eq).trim(), condition.substring(eq + 1).trim());
+                }
+                for (String key : where.keySet()) {
+                    if (!Set.of("status", "priority", "from", "to", "text").contains(key)) {
+                        throw new IllegalArgumentException("неизвестное условие: " + key);
                     }
                 }
+                String value = field(parts, 3, null);
+                if (value == null) throw new IllegalArgumentException("не указано новое значение");
+                String property = field(parts, 2, "");
+                Consumer<Task> change = switch (property) {
+                    case "status" -> {
+                        Status status = Status.valueOf(value);
+                        yield t -> t.setStatus(status);
+                    }
+                    case "priority" -> {
+                        Priority priority = Priority.valueOf(value);
+                        yield t -> t.setPriority(priority);
+                    }
+                    case "deadline" -> {
+                        LocalDate deadline = value.isEmpty() ? null : LocalDate.parse(value);
+                        yield t -> t.setDeadline(deadline);
+                    }
+                    default -> throw new IllegalArgumentException("неизвестное поле: " + property);
+                };
+                List<Task> selected = selectTasks(
+                        where.containsKey("status") ? Status.valueOf(where.get("status")) : null,
+                        where.containsKey("priority") ? Priority.valueOf(where.get("priority")) : null,
+                        where.containsKey("from") ? LocalDate.parse(where.get("from")) : null,
+                        where.containsKey("to") ? LocalDate.parse(where.get("to")) : null,
+                        where.get("text"));
+                updateTasks(selected, change, property.equals("status"));
+                out.append("✅ Изменено задач: ").append(selected.size()).append('\n');
             }
-            case "4" -> {
-                for (Task task : tasks) {
-                    if (task.isOverdue()) {
-                        filteredTasks.add(task);
+            case "delete" -> removeTask(requireTask(parts));
+            case "get" -> {
+                int id = Integer.parseInt(field(parts, 1, ""));
+                Task task = published.get(id);
+                if (task == null) throw new IllegalArgumentException("задача с ID " + id + " не найдена");
+                appendResults(out, List.of(task));
+            }
+            case "filter" -> {
+                List<Task> found = switch (field(parts, 1, "")) {
+                    case "status" -> {
+                        Status status = Status.valueOf(field(parts, 2, ""));
+                        yield publishedWhere(t -> t.getStatus() == status);
+                    }
+                    case "priority" -> {
+                        Priority priority = Priority.valueOf(field(parts, 2, ""));
+                        yield publishedWhere(t -> t.getPriority() == priority);
                     }
+                    case "overdue" -> {
+                        LocalDate today = LocalDate.now();
+                        yield publishedWhere(t -> t.isOverdue(today));
+                    }
+                    case "deadline" -> calendar.between(
+                            LocalDate.parse(field(parts, 2, "")), LocalDate.parse(field(parts, 3, "")));
+                    default -> throw new IllegalArgumentException("неизвестный фильтр: " + field(parts, 1, ""));
+                };
+                appendResults(out, found);
+            }
+            case "search" -> appendResults(out, search(field(parts, 1, "")));
+            case "suggest" -> appendResults(out, suggest(field(parts, 1, "")).stream()
+                    .map(TitleTrie.Suggestion::task).toList());
+            case "query" -> appendResults(out, runQuery(TaskQuery.parse(field(parts, 1, ""), LocalDate.now())));
+            case "explain" -> explainQuery(TaskQuery.parse(field(parts, 1, ""), LocalDate.now()), out);
+            case "stats" -> {
+                out.append("total=").append(tasks.size());
+                for (Status status : Status.values()) {
+                    out.append(';').append(status.name()).append('=').append(statistics.count(status));
                 }
-                System.out.println("\n📋 Просроченные задачи");
+                out.append(";overdue=").append(statistics.overdue(LocalDate.now()));
+                for (Priority priority : Priority.values()) {
+                    out.append(';').append(priority.name()).append('=').append(statistics.count(priority));
+                }
+                out.append('\n');
             }
-            case "5" -> {
-                List<Task> sortedByUpdate = new ArrayList<>(tasks);
-                sortedByUpdate.sort((t1, t2) -> t2.getUpdatedAt().compareTo(t1.getUpdatedAt()));
+            case "undo", "redo" -> {
+                UndoStep step = undo(parts[0].equals("undo"));
+                if (step == null) throw new IllegalArgumentException(parts[0].equals("undo") ? "нечего отменять" : "нечего повторять");
+                out.append(parts[0].equals("undo") ? "↩️  Отменено: " : "↪️  Повторено: ").append(step.label())
+                        .append(" (задач: ").append(step.ids().length).append(")\n");
+            }
+            case "export" -> {
+                String format = field(parts, 1, "");
+                if (!format.equals("csv") && !format.equals("json")) {
+                    throw new IllegalArgumentException("неизвестный формат: " + format);
+                }
+                if (field(parts, 2, "").equals("changes")) {
+                    ExportResult result = exportChanges(format.equals("json"));
+                    out.append("✅ Экспортировано изменений: ").append(result.changed())
+                            .append(", удалений: ").append(result.deleted()).append('\n');
+                } else {
+                    int exported;
+                    synchronized (exportLock) {
+                        exported = format.equals("csv") ? writeCSV() : writeJSON();
+                    }
+                    out.append("✅ Экспортировано задач: ").append(exported).append('\n');
+                }
+            }
+            default -> throw new IllegalArgumentException("неизвестная команда: " + parts[0]);
+        }
+    }
+
+    private Task requireTask(String[] parts) {
+        int id = Integer.parseInt(field(parts, 1, ""));
+        Task task = findTaskById(id);
+        if (task == null) throw new IllegalArgumentException("задача с ID " + id + " не найдена");
+        return task;
+    }
+
+    private static String field(String[] parts, int index, String defaultValue) {
+        return parts.length > index ? parts[index] : defaultValue;
+    }
+
+    // Результаты фильтра и поиска выводятся строками CSV
+    private static void appendResults(StringBuilder out, List<Task> found) {
+        for (Task task : found) {
+            TaskEncoder.appendCSV(out, task);
+            out.append('\n');
+        }
+        out.append("🔍 Найдено задач: ").append(found.size()).append('\n');
+    }
 
-                int limit = Math.min(10, sortedByUpdate.size());
-                for (int i = 0; i < limit; i++) {
-                    filteredTasks.add(sortedByUpdate.get(i));
+    // ==================== СЕРВЕР ====================
+
+    // Локальный сервер: принимает соединения только с 127.0.0.1, каждое
+    // соединение обслуживается своим (по возможности виртуальным) потоком.
+    // Протокол строковый: клиент присылает команду в формате runScript,
+    // сервер отвечает выводом команды и строкой "OK" или "ERR причина".
+    // Изменения подтверждаются клиенту после групповой фиксации журнала.
+    static void runServer(int port) throws IOException {
+        TaskPlanner planner = new TaskPlanner();
+        GroupCommitter committer = new GroupCommitter(planner::commitAndCompact, COMMIT_INTERVAL_MS);
+        planner.startReminders();
+        planner.startMetricsDump();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            committer.close();
+            planner.changes.close();
+        }));
+
+        ExecutorService connections = newConnectionExecutor();
+        try (ServerSocket server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            System.out.println("🌐 Сервер запущен: " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> serveConnection(planner, committer, socket));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    private static void serveConnection(TaskPlanner planner, GroupCommitter committer, Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (line.equals("quit")) break;
+
+                // Ошибка команды, в том числе записи на диск или фиксации
+                // журнала, возвращается клиенту; соединение закрывает только
+                // ошибка самого сокета
+                String reply;
+                try {
+                    String result = planner.execute(line);
+                    if (!isReadCommand(line.split(";", 2)[0])) {
+                        committer.await(committer.request());
+                    }
+                    reply = result + "OK\n";
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    reply = "ERR " + e.getMessage() + "\n";
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("❌ Ошибка команды " + line + ": " + e);
+                    String reason = e.getMessage() != null ? e.getMessage() : e.toString();
+                    reply = "ERR " + reason.replace('\n', ' ') + "\n";
                 }
-                System.out.println("\n📋 Недавно обновленные задачи");
+                out.write(reply);
+                out.flush();
             }
-            case "0" -> { return; }
-            default -> {
-                System.out.println("❌ Неверный выбор.");
+        } catch (IOException e) {
+            // Клиент отключился
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Виртуальный поток на соединение, если JVM их поддерживает (Java 21+),
+    // иначе обычный пул потоков
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Фиксирует журнал и при необходимости сворачивает его в новый снимок.
+    // Ошибка фиксации передается дальше; неудачное сворачивание изменений не
+    // теряет - они остаются в журнале
+    private void commitAndCompact() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            syncJournal();
+            if (journal.size() >= COMPACT_THRESHOLD) {
+                try {
+                    compactJournal();
+                } catch (IOException e) {
+                    System.out.println("❌ Ошибка при сворачивании журнала: " + e.getMessage());
+                }
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    // Генератор нагрузки для runServer: clients соединений одновременно
+    // отправляют по requests команд (в основном чтения, часть изменений)
+    // и замеряют время ответа каждой.
+    static void runLoadGenerator(int port, int clients, int requests) throws InterruptedException {
+        long[][] latencies = new long[clients][];
+        LongAdder errors = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = newConnectionExecutor();
+
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            pool.execute(() -> {
+                long[] times = new long[requests];
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                     BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                    socket.setTcpNoDelay(true);
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    start.await();
+                    for (int i = 0; i < requests; i++) {
+                        int roll = random.nextInt(100);
+                        String command;
+                        if (roll < 70) {
+                            command = "get;" + (1 + random.nextInt(1000));
+                        } else if (roll < 80) {
+                            command = "stats";
+                        } else if (roll < 90) {
+                            command = "search;задача " + random.nextInt(1000);
+                        } else {
+                            command = "add;Задача клиента " + client + ";;TODO;LOW;";
+                        }
+
+                        long started = System.nanoTime();
+                        out.write(command);
+                        out.write('\n');
+                        out.flush();
+                        String line;
+                        while ((line = in.readLine()) != null && !line.equals("OK") && !line.startsWith("ERR")) {
+                            // вывод команды
+                        }
+                        times[i] = System.nanoTime() - started;
+                    }
+                } catch (IOException | InterruptedException e) {
+                    errors.increment();
+                }
+                latencies[client] = times;
+            });
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        long[] all = Arrays.stream(latencies).filter(Objects::nonNull).flatMapToLong(Arrays::stream)
+                .filter(t -> t > 0).sorted().toArray();
+        if (all.length == 0) {
+            System.out.println("❌ Нет ответов от сервера на порту " + port);
+            return;
+        }
+        System.out.printf("📊 Клиентов: %d, запросов: %d за %.2f с (%.0f запросов/с), ошибок соединения: %d%n",
+                clients, all.length, seconds, all.length / seconds, errors.sum());
+        System.out.printf("   p50: %.2f мс, p99: %.2f мс, max: %.2f мс%n",
+                all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6);
+    }
+
+    // ==================== ГЕНЕРАТОР И ЗАМЕРЫ ====================
+
+    static void generateData(int n, long seed, LocalDate base) throws IOException {
+        long started = System.nanoTime();
+        new TaskGenerator(seed, base).write(n, Paths.get(CSV_FILE), Paths.get(JSON_FILE));
+        System.out.printf("✅ Сгенерировано задач: %d (seed %d, от %s) в %s и %s за %.2f с%n",
+                n, seed, base.format(DATE_FORMATTER), CSV_FILE, JSON_FILE, (System.nanoTime() - started) / 1e9);
+    }
+
+    // Замеры основных операций на сгенерированных данных: для каждого размера
+    // файлы генерируются заново, каждая операция сначала прогревается, затем
+    // выполняется не меньше MIN_RUNS раз и не меньше секунды. Операции
+    // меню без ввода с клавиатуры замеряются через соответствующие команды
+    // execute(). Вывод самих операций подавляется.
+    // Пишет tasks.csv и tasks.json в текущий каталог, поэтому запускается
+    // только в каталоге без файлов планировщика.
+    static void runBenchmarks(int[] sizes, long seed) throws IOException {
+        for (String name : new String[]{CSV_FILE, JSON_FILE, PARTITION_DIR, JOURNAL_FILE}) {
+            if (new File(name).exists()) {
+                System.out.println("❌ В текущем каталоге уже есть " + name + ". Запустите замеры в пустом каталоге.");
                 return;
             }
         }
 
-        if (filteredTasks.isEmpty()) {
-            System.out.println("📭 Задачи не найдены.");
-        } else {
-            System.out.println("Найдено задач: " + filteredTasks.size() + "\n");
-            for (Task task : filteredTasks) {
-                System.out.println(task);
-                System.out.println();
+        System.out.printf("%-14s %10s %14s %14s %10s%n", "Операция", "Задач", "мкс/оп", "оп/с", "Запусков");
+        try {
+            for (int size : sizes) {
+                new TaskGenerator(seed, LocalDate.now()).write(size, Paths.get(CSV_FILE), Paths.get(JSON_FILE));
+                TaskPlanner planner = new TaskPlanner(false);
+                SplittableRandom random = new SplittableRandom(seed);
+
+                bench("loadFromCSV", size, planner::loadFromCSV);
+                bench("loadFromJSON", size, planner::loadFromJSON);
+                bench("saveToCSV", size, planner::saveToCSV);
+                bench("saveToJSON", size, planner::saveToJSON);
+                bench("filterTasks", size, () -> planner.execute("filter;status;IN_PROGRESS"));
+                bench("query", size, () -> planner.execute("query;priority = HIGH and status != DONE and deadline <= month_end"));
+                bench("searchTasks", size, () -> planner.execute("search;отчет клиент"));
+                bench("suggestTitle", size, () -> planner.execute("suggest;подгтовить отч"));
+                bench("showStatistics", size, () -> planner.execute("stats"));
+                bench("findTaskById", size, () -> planner.findTaskById(1 + random.nextInt(size)));
             }
+        } finally {
+            Files.deleteIfExists(Paths.get(CSV_FILE));
+            Files.deleteIfExists(Paths.get(JSON_FILE));
         }
     }
 
-    private void searchTasks() {
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("                  ПОИСК ЗАДАЧ");
-        System.out.println("═══════════════════════════════════════════════");
+    private static final int MIN_RUNS = 3;
 
-        System.out.print("Введите текст для поиска (в названии или описании): ");
-        String query = scanner.nextLine().trim().toLowerCase();
+    interface BenchOperation {
+        void run() throws IOException;
+    }
 
-        if (query.isEmpty()) {
-            System.out.println("❌ Введите текст для поиска.");
-            return;
+    private static void bench(String name, int size, BenchOperation operation) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long runs = 0;
+        long elapsed = 0;
+        try {
+            // Прогрев: та же секунда вызовов, результаты отбрасываются
+            for (long until = System.nanoTime() + 1_000_000_000L, warmup = 0;
+                 warmup < 1 || System.nanoTime() < until; warmup++) {
+                operation.run();
+            }
+            // Короткие операции выполняются пачками, чтобы не мерить System.nanoTime()
+            int batch = 1;
+            while (runs < MIN_RUNS || elapsed < 1_000_000_000L) {
+                long started = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    operation.run();
+                }
+                long time = System.nanoTime() - started;
+                elapsed += time;
+                runs += batch;
+                if (time < 10_000_000L) batch = Math.min(batch * 2, 1 << 20);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        double micros = elapsed / 1e3 / runs;
+        System.out.printf("%-14s %10d %14.3f %14.1f %10d%n", name, size, micros, 1e6 / micros, runs);
+    }
+
+    // ==================== НАГРУЗОЧНЫЙ ТЕСТ ====================
+
+    // Многопоточный тест execute() на задачах в памяти: смесь чтений
+    // (get, фильтр по дню дедлайна) и изменений (add, edit, delete). В конце проверяется,
+    // что индексы и текущая версия согласованы со списком задач по содержимому.
+    static void runStressTest(int threads, int seconds, int initialTasks) throws InterruptedException {
+        TaskPlanner planner = new TaskPlanner(false);
+        Status[] statuses = Status.values();
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < initialTasks; i++) {
+            planner.createTask("Задача " + i, "описание " + i, statuses[i % statuses.length],
+                    Priority.MEDIUM, today.plusDays(i % 365));
+        }
+        planner.published = planner.version;
+
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        LongAdder readNanos = new LongAdder();
+        LongAdder writeNanos = new LongAdder();
+        LongAdder failures = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int maxId = Math.max(1, planner.nextId.get() - 1);
+                    int id = 1 + random.nextInt(maxId);
+                    int roll = random.nextInt(100);
+                    String command;
+                    if (roll < 80) {
+                        command = "get;" + id;
+                    } else if (roll < 83) {
+                        String day = today.plusDays(random.nextInt(365)).toString();
+                        command = "filter;deadline;" + day + ";" + day;
+                    } else if (roll < 84) {
+                        command = "stats";
+                    } else if (roll < 85) {
+                        command = "search;задача " + id;
+                    } else if (roll < 93) {
+                        command = "edit;" + id + ";status;" + statuses[random.nextInt(statuses.length)].name();
+                    } else if (roll < 97) {
+                        command = "add;Новая задача;;TODO;LOW;";
+                    } else {
+                        command = "delete;" + id;
+                    }
+
+                    boolean read = roll < 85;
+                    long started = System.nanoTime();
+                    try {
+                        planner.execute(command);
+                    } catch (IllegalArgumentException e) {
+                        // задача уже удалена другим потоком
+                        failures.increment();
+                    } catch (Exception e) {
+                        failures.increment();
+                        System.out.println("❌ " + command + ": " + e);
+                    }
+                    long elapsed = System.nanoTime() - started;
+                    (read ? reads : writes).increment();
+                    (read ? readNanos : writeNanos).add(elapsed);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+
+        long totalReads = reads.sum();
+        long totalWrites = writes.sum();
+        System.out.printf("📊 Потоков: %d, время: %d с%n", threads, seconds);
+        System.out.printf("   Чтений: %d (%.0f/с, в среднем %.1f мкс)%n", totalReads,
+                totalReads / (double) seconds, readNanos.sum() / 1000.0 / Math.max(1, totalReads));
+        System.out.printf("   Изменений: %d (%.0f/с, в среднем %.1f мкс)%n", totalWrites,
+                totalWrites / (double) seconds, writeNanos.sum() / 1000.0 / Math.max(1, totalWrites));
+        System.out.println("   Команд по уже удаленным задачам: " + failures.sum());
+
+        List<String> problems = planner.checkIndexes();
+        if (problems.isEmpty()) {
+            System.out.println("✅ Индексы согласованы, задач: " + planner.tasks.size());
+        } else {
+            System.out.println("❌ Индексы рассогласованы:");
+            problems.stream().limit(10).forEach(problem -> System.out.println("   " + problem));
         }
+    }
 
-        List<Task> foundTasks = new ArrayList<>();
+    // Сверяет с каждой задачей списка индекс по ID, версию и дни дедлайнов,
+    // а счетчики статистики - с пересчетом по списку
+    private List<String> checkIndexes() {
+        List<String> problems = new ArrayList<>();
+        Map<Status, Integer> byStatus = new EnumMap<>(Status.class);
+        Map<Priority, Integer> byPriority = new EnumMap<>(Priority.class);
+        LocalDate today = LocalDate.now();
+        int overdue = 0;
         for (Task task : tasks) {
-            if (task.getTitle().toLowerCase().contains(query) ||
-                    task.getDescription().toLowerCase().contains(query)) {
-                foundTasks.add(task);
+            int id = task.getId();
+            if (tasksById.get(id) != task) problems.add("задача " + id + " не совпадает с индексом по ID");
+            Task stored = version.get(id);
+            if (stored == null || !sameContent(stored, task)) problems.add("версия задачи " + id + " устарела");
+            if (task.getDeadline() != null && !calendar.between(task.getDeadline(), task.getDeadline()).contains(task)) {
+                problems.add("задачи " + id + " нет в календаре на " + task.getDeadline());
+            }
+            byStatus.merge(task.getStatus(), 1, Integer::sum);
+            byPriority.merge(task.getPriority(), 1, Integer::sum);
+            if (task.isOverdue(today)) overdue++;
+        }
+        if (tasksById.size() != tasks.size()) problems.add("в индексе по ID " + tasksById.size() + " задач вместо " + tasks.size());
+        if (published != version) problems.add("опубликованная версия отстает от текущей");
+        if (version.size() != tasks.size()) problems.add("в версии " + version.size() + " задач вместо " + tasks.size());
+        for (Status status : Status.values()) {
+            if (statistics.count(status) != byStatus.getOrDefault(status, 0)) problems.add("неверный счетчик " + status);
+            if (statusIndex.tasks(List.of(status), this::findTaskById).size() != byStatus.getOrDefault(status, 0)) {
+                problems.add("индекс статуса " + status + " не совпадает со списком");
             }
         }
-
-        if (foundTasks.isEmpty()) {
-            System.out.println("🔍 Задачи не найдены.");
-        } else {
-            System.out.println("\n🔍 Найдено задач: " + foundTasks.size() + "\n");
-            for (Task task : foundTasks) {
-                System.out.println(task);
-                System.out.println();
+        for (Priority priority : Priority.values()) {
+            if (statistics.count(priority) != byPriority.getOrDefault(priority, 0)) problems.add("неверный счетчик " + priority);
+            if (priorityIndex.tasks(List.of(priority), this::findTaskById).size() != byPriority.getOrDefault(priority, 0)) {
+                problems.add("индекс приоритета " + priority + " не совпадает со списком");
             }
         }
+        if (statistics.overdue(today) != overdue) problems.add("неверный счетчик просроченных");
+        return problems;
     }
 
-    // ==================== СТАТИСТИКА И ОТЧЕТЫ ====================
+    private static boolean sameContent(Task a, Task b) {
+        return a.getTitle().equals(b.getTitle()) && a.getDescription().equals(b.getDescription())
+                && a.getStatus() == b.getStatus() && a.getPriority() == b.getPriority()
+                && Objects.equals(a.getDeadline(), b.getDeadline()) && a.getUpdatedAt().equals(b.getUpdatedAt());
+    }
 
-    private void showStatistics() {
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("                  СТАТИСТИКА");
-        System.out.println("═══════════════════════════════════════════════");
+    // ==================== ЗАПРОСЫ ====================
 
-        int totalTasks = tasks.size();
-        int doneTasks = 0;
-        int inProgressTasks = 0;
-        int todoTasks = 0;
-        int overdueTasks = 0;
-        int highPriority = 0;
-        int mediumPriority = 0;
-        int lowPriority = 0;
+    // Способ получить кандидатов для запроса и оценка их числа
+    private record AccessPath(String name, long estimate, Supplier<Collection<Task>> source) {}
 
-        for (Task task : tasks) {
-            switch (task.getStatus()) {
-                case DONE -> doneTasks++;
-                case IN_PROGRESS -> inProgressTasks++;
-                case TODO -> todoTasks++;
-            }
+    // Все доступные пути для запроса; первый с наименьшей оценкой будет выбран.
+    // Оценки берутся из счетчиков статистики и списков текстового индекса,
+    // задачи при этом не перебираются.
+    private List<AccessPath> accessPaths(TaskQuery query) {
+        List<AccessPath> paths = new ArrayList<>();
+        if (query.isEmpty()) {
+            paths.add(new AccessPath("пустой результат: условия противоречат друг другу", 0, List::of));
+            return paths;
+        }
+        // Полный просмотр идет по неизменяемой версии, а не по списку задач:
+        // ее можно перебирать и во время записи (кандидаты все равно
+        // берутся по ID из tasksById)
+        paths.add(new AccessPath("полный просмотр", tasks.size(), () -> version.values()));
+
+        List<Status> statuses = query.statuses();
+        if (statuses != null) {
+            long estimate = 0;
+            for (Status status : statuses) estimate += statistics.count(status);
+            paths.add(new AccessPath("индекс статуса " + names(statuses), estimate,
+                    () -> statusIndex.tasks(statuses, this::findTaskById)));
+        }
 
-            if (task.isOverdue()) {
-                overdueTasks++;
-            }
+        List<Priority> priorities = query.priorities();
+        if (priorities != null) {
+            long estimate = 0;
+            for (Priority priority : priorities) estimate += statistics.count(priority);
+            paths.add(new AccessPath("индекс приоритета " + names(priorities), estimate,
+                    () -> priorityIndex.tasks(priorities, this::findTaskById)));
+        }
+
+        if (query.hasDeadlineRange()) {
+            LocalDate from = query.from();
+            LocalDate to = query.to();
+            paths.add(new AccessPath("диапазон дедлайнов " + from + " .. " + to,
+                    calendar.count(from, to), () -> calendar.between(from, to)));
+        } else if (query.withoutDeadline) {
+            paths.add(new AccessPath("задачи без дедлайна", calendar.countWithoutDeadline(), () -> tasksWhere(t -> t.getDeadline() == null)));
+        }
 
-            switch (task.getPriority()) {
-                case HIGH -> highPriority++;
-                case MEDIUM -> mediumPriority++;
-                case LOW -> lowPriority++;
+        // Текстовый индекс строится при первом поиске; здесь он только
+        // используется, если уже есть (см. prepareQuery)
+        if (searchIndex.isBuilt()) {
+            for (String term : query.textTerms()) {
+                paths.add(new AccessPath("текстовый индекс \"" + term + "\"",
+                        searchIndex.estimate(term), () -> searchIndex.search(term)));
             }
         }
+        return paths;
+    }
 
-        System.out.printf("📊 Всего задач: %d\n", totalTasks);
-        if (totalTasks > 0) {
-            System.out.printf("✅ Выполнено: %d (%.1f%%)\n", doneTasks, doneTasks * 100.0 / totalTasks);
-            System.out.printf("🔄 В процессе: %d (%.1f%%)\n", inProgressTasks, inProgressTasks * 100.0 / totalTasks);
-            System.out.printf("📝 К выполнению: %d (%.1f%%)\n", todoTasks, todoTasks * 100.0 / totalTasks);
-        } else {
-            System.out.println("✅ Выполнено: 0 (0.0%)");
-            System.out.println("🔄 В процессе: 0 (0.0%)");
-            System.out.println("📝 К выполнению: 0 (0.0%)");
+    private static AccessPath choose(List<AccessPath> paths) {
+        AccessPath best = paths.get(0);
+        for (AccessPath path : paths) {
+            if (path.estimate() < best.estimate()) best = path;
         }
-        System.out.printf("⏰ Просрочено: %d\n", overdueTasks);
+        return best;
+    }
 
-        System.out.println("\n⚡ Распределение по приоритетам:");
-        System.out.printf("🔴 Высокий: %d задач\n", highPriority);
-        System.out.printf("🟡 Средний: %d задач\n", mediumPriority);
-        System.out.printf("🟢 Низкий: %d задач\n", lowPriority);
+    private static String names(List<? extends Enum<?>> values) {
+        StringJoiner joiner = new StringJoiner(", ", "(", ")");
+        for (Enum<?> value : values) joiner.add(value.name());
+        return joiner.toString();
+    }
 
-        // Самые старые невыполненные задачи
-        List<Task> oldestTasks = new ArrayList<>();
-        for (Task task : tasks) {
-            if (task.getStatus() != Status.DONE) {
-                oldestTasks.add(task);
-            }
+    // Готовит текстовый индекс, если он понадобится запросу. Вызывается там,
+    // где разрешена запись (меню, блокировка записи в execute)
+    private void prepareQuery(TaskQuery query) {
+        if (query.hasText()) ensureSearchIndex();
+    }
+
+    // Кандидаты из выбранного пути проверяются всеми условиями запроса за
+    // один проход. Результат - сами задачи в порядке ID.
+    private List<Task> runQuery(TaskQuery query) {
+        long started = System.nanoTime();
+        List<Task> found = new ArrayList<>();
+        for (Task candidate : choose(accessPaths(query)).source().get()) {
+            Task task = tasksById.get(candidate.getId());
+            if (task != null && query.test(task)) found.add(task);
         }
-        oldestTasks.sort(Comparator.comparing(Task::getCreatedAt));
+        found.sort(Comparator.comparingInt(Task::getId));
+        METRICS.timer("query").record(System.nanoTime() - started);
+        return found;
+    }
 
-        int limit = Math.min(3, oldestTasks.size());
-        if (limit > 0) {
-            System.out.println("\n📅 Самые старые невыполненные задачи:");
-            for (int i = 0; i < limit; i++) {
-                Task task = oldestTasks.get(i);
-                System.out.printf("• ID %d: %s (создано: %s)\n",
-                        task.getId(), task.getTitle(),
-                        task.getCreatedAt().format(DateTimeFormatter.ofPattern("dd.MM.yyyy")));
-            }
+    private void explainQuery(TaskQuery query, StringBuilder out) {
+        List<AccessPath> paths = accessPaths(query);
+        AccessPath chosen = choose(paths);
+        out.append("📐 План запроса: ").append(query.source.isEmpty() ? "(все задачи)" : query.source).append('\n');
+        out.append("  ✔ ").append(chosen.name()).append(" - оценка: ").append(chosen.estimate()).append(" строк\n");
+        for (AccessPath path : paths) {
+            if (path == chosen) continue;
+            out.append("  ✖ ").append(path.name()).append(" - оценка: ").append(path.estimate()).append(" строк\n");
+        }
+        if (query.hasText() && !searchIndex.isBuilt()) {
+            out.append("  ✖ текстовый индекс еще не построен\n");
         }
+        out.append("  Фильтр: все условия запроса за один проход по кандидатам\n");
     }
 
-    private void showUpcomingTasks() {
-        System.out.println("\n═══════════════════════════════════════════════");
-        System.out.println("             ПРЕДСТОЯЩИЕ ЗАДАЧИ");
-        System.out.println("═══════════════════════════════════════════════");
+    // ==================== ИЗМЕНЕНИЕ ДАННЫХ ====================
 
-        LocalDate today = LocalDate.now();
-        LocalDate nextWeek = today.plusDays(7);
+    // Все изменения задач проходят через эти методы: они обновляют индексы
+    // и дописывают запись в журнал. Фиксирует журнал вызывающий код -
+    // после одной операции меню или после пакета команд.
 
-        List<Task> upcomingTasks = new ArrayList<>();
-        for (Task task : tasks) {
-            if (task.getDeadline() != null &&
-                    !task.getDeadline().isBefore(today) &&
-                    !task.getDeadline().isAfter(nextWeek) &&
-                    task.getStatus() != Status.DONE &&
-                    task.getStatus() != Status.CANCELLED) {
-                upcomingTasks.add(task);
-            }
+    private Task createTask(String title, String description,
+                            Status status, Priority priority, LocalDate deadline) {
+        markDirty(deadline);
+        Task task = new Task(nextId.getAndIncrement(), title, description, status, priority, deadline);
+        tasks.add(task);
+        index(task);
+        storeVersion(task);
+        journalWrite(() -> journal.add(task));
+        if (changes.hasSubscribers()) {
+            changes.publish(ChangeBus.Type.CREATED, task.getId(), task.copy(), EnumSet.allOf(ChangeBus.Field.class));
         }
+        return task;
+    }
 
-        if (upcomingTasks.isEmpty()) {
-            System.out.println("🎉 Нет предстоящих задач на ближайшую неделю!");
+    private void updateTask(Task task, Consumer<Task> change, boolean statusOnly) {
+        Task before = changes.hasSubscribers() ? task.copy() : null;
+        LocalDate oldDeadline = task.getDeadline();
+        unindex(task);
+        change.accept(task);
+        index(task);
+        markDirty(oldDeadline);
+        markDirty(task.getDeadline());
+        storeVersion(task);
+        publishUpdate(before, task);
+        if (statusOnly) {
+            journalWrite(() -> journal.statusChange(task));
         } else {
-            System.out.println("📅 Задачи на ближайшую неделю (" + upcomingTasks.size() + "):\n");
-
-            // Сортировка по дате
-            upcomingTasks.sort(Comparator.comparing(Task::getDeadline));
+            journalWrite(() -> journal.edit(task));
+        }
+    }
 
-            // Группируем по дням
-            Map<LocalDate, List<Task>> tasksByDay = new TreeMap<>();
-            for (Task task : upcomingTasks) {
-                LocalDate deadline = task.getDeadline();
-                tasksByDay.computeIfAbsent(deadline, k -> new ArrayList<>()).add(task);
+    // Массовое изменение: всем задачам ставится одна отметка времени, а при
+    // большом пакете индексы перестраиваются один раз вместо снятия и
+    // добавления каждой задачи. Журнал, как и для одиночных изменений,
+    // фиксирует вызывающий код - один раз на весь пакет.
+    private void updateTasks(List<Task> selected, Consumer<Task> change, boolean statusOnly) {
+        LocalDateTime now = LocalDateTime.now();
+        Consumer<Task> stamped = change.andThen(t -> t.setUpdatedAt(now));
+        List<Task> before = new ArrayList<>();
+        if (changes.hasSubscribers()) {
+            for (Task task : selected) before.add(task.copy());
+        }
+        for (Task task : selected) markDirty(task.getDeadline());
+        if (selected.size() > tasks.size() / 4) {
+            selected.forEach(stamped);
+            rebuildIndexes();
+        } else {
+            for (Task task : selected) {
+                unindex(task);
+                stamped.accept(task);
+                index(task);
             }
-
-            for (Map.Entry<LocalDate, List<Task>> entry : tasksByDay.entrySet()) {
-                System.out.println("📅 " + entry.getKey().format(DATE_FORMATTER) + ":");
-                for (Task task : entry.getValue()) {
-                    System.out.printf("   • [ID %d] %s (%s, %s)\n",
-                            task.getId(), task.getTitle(), task.getPriority(), task.getStatus());
-                }
-                System.out.println();
+        }
+        for (int i = 0; i < selected.size(); i++) {
+            Task task = selected.get(i);
+            markDirty(task.getDeadline());
+            storeVersion(task);
+            if (statusOnly) {
+                journalWrite(() -> journal.statusChange(task));
+            } else {
+                journalWrite(() -> journal.edit(task));
             }
+            if (!before.isEmpty()) publishUpdate(before.get(i), task);
         }
     }
 
-    // ==================== СОХРАНЕНИЕ И ЗАГРУЗКА ====================
+    // Возвращает удаленную задачу (отмена удаления) под ее прежним ID
+    private void restoreTask(Task task) {
+        markDirty(task.getDeadline());
+        int pos = 0;
+        while (pos < tasks.size() && tasks.get(pos).getId() < task.getId()) pos++;
+        tasks.add(pos, task);
+        index(task);
+        storeVersion(task);
+        journalWrite(() -> journal.add(task));
+        if (changes.hasSubscribers()) {
+            changes.publish(ChangeBus.Type.CREATED, task.getId(), task.copy(), EnumSet.allOf(ChangeBus.Field.class));
+        }
+    }
 
-    private void saveToCSV() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(CSV_FILE))) {
-            writer.println("ID;Название;Описание;Статус;Приоритет;Дедлайн;Создано;Обновлено");
+    private void publishUpdate(Task before, Task after) {
+        if (before == null) return;
+        changes.publish(ChangeBus.Type.UPDATED, after.getId(), after.copy(), ChangeBus.diff(before, after));
+    }
 
-            for (Task task : tasks) {
-                writer.println(task.toCSV());
+    // Отбор задач для массового изменения через планировщик запросов.
+    // Возвращает отдельный список: индексы меняются во время изменения.
+    private List<Task> selectTasks(Status status, Priority priority,
+                                   LocalDate from, LocalDate to, String text) {
+        TaskQuery query = TaskQuery.all(LocalDate.now());
+        if (status != null) query.whereStatus(status);
+        if (priority != null) query.wherePriority(priority);
+        if (from != null || to != null) query.whereDeadline(from, to);
+        if (text != null && !text.isEmpty()) query.whereText(text);
+        prepareQuery(query);
+        return runQuery(query);
+    }
+
+    private void removeTask(Task task) {
+        markDirty(task.getDeadline());
+        tasks.remove(task);
+        unindex(task);
+        dropVersion(task);
+        journalWrite(() -> journal.delete(task));
+        if (persistent) {
+            try {
+                tombstones.add(task.getId(), LocalDateTime.now());
+            } catch (IOException e) {
+                System.out.println("❌ Ошибка записи отметки об удалении: " + e.getMessage());
             }
+        }
+        if (changes.hasSubscribers()) {
+            changes.publish(ChangeBus.Type.DELETED, task.getId(), task.copy(), null);
+        }
+    }
 
-            System.out.println("✅ Данные сохранены в файл: " + CSV_FILE);
-            System.out.println("📊 Сохранено задач: " + tasks.size());
+    // ==================== ЖУРНАЛ ====================
+
+    interface JournalWrite {
+        void write() throws IOException;
+    }
 
+    private void journalWrite(JournalWrite write) {
+        if (!persistent) return;
+        try {
+            write.write();
+            METRICS.add(Metrics.Counter.JOURNAL_RECORDS_WRITTEN, 1);
         } catch (IOException e) {
-            System.out.println("❌ Ошибка при сохранении в CSV: " + e.getMessage());
+            System.out.println("❌ Ошибка записи в журнал: " + e.getMessage());
         }
     }
 
-    private void loadFromCSV() {
-        File file = new File(CSV_FILE);
-        if (!file.exists()) {
-            System.out.println("📂 Файл " + CSV_FILE + " не найден. Будет создан новый.");
-            return;
+    // Сбрасывает на диск записи, накопленные с прошлой фиксации
+    private void commitJournal() {
+        try {
+            syncJournal();
+        } catch (IOException e) {
+            System.out.println("❌ Ошибка записи в журнал: " + e.getMessage());
         }
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(CSV_FILE))) {
-            List<Task> loadedTasks = new ArrayList<>();
-            String line;
-            boolean isFirstLine = true;
-            int maxId = 0;
-
-            while ((line = reader.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue;
-                }
+    // То же с ошибкой для вызывающего: сервер сообщает ее клиентам
+    private void syncJournal() throws IOException {
+        if (!persistent) return;
+        long started = System.nanoTime();
+        tombstones.commit();
+        journal.commit();
+        METRICS.add(Metrics.Counter.JOURNAL_COMMITS, 1);
+        METRICS.timer("journalCommit").record(System.nanoTime() - started);
+    }
 
-                String[] parts = line.split(";", -1);
-                if (parts.length >= 8) {
-                    try {
-                        int id = Integer.parseInt(parts[0]);
-                        String title = parts[1];
-                        String description = parts[2];
-                        Status status = Status.valueOf(parts[3]);
-                        Priority priority = Priority.valueOf(parts[4]);
-
-                        LocalDate deadline = null;
-                        if (!parts[5].isEmpty()) {
-                            deadline = LocalDate.parse(parts[5]);
-                        }
+    // ==================== ИНДЕКСЫ ====================
 
-                        LocalDateTime createdAt = LocalDateTime.parse(parts[6]);
-                        LocalDateTime updatedAt = LocalDateTime.parse(parts[7]);
+    // Вызывается после добавления или изменения задачи
+    private void index(Task task) {
+        searchIndex.add(task);
+        indexFields(task);
+    }
 
-                        Task task = new Task(id, title, description, status, priority, deadline, createdAt, updatedAt);
-                        loadedTasks.add(task);
-                        maxId = Math.max(maxId, id);
+    // Все индексы, кроме текстового: его rebuildIndexes сверяет, а не строит
+    private void indexFields(Task task) {
+        tasksById.put(task.getId(), task);
+        statistics.add(task);
+        statusIndex.add(task);
+        priorityIndex.add(task);
+        updates.add(task);
+        calendar.add(task);
+        titles.add(task);
+        reminders.schedule(task);
+    }
 
-                    } catch (Exception e) {
-                        System.out.println("⚠️  Ошибка при чтении строки: " + line);
-                        System.out.println("    Причина: " + e.getMessage());
-                    }
-                }
-            }
+    // Вызывается перед изменением или после удаления задачи
+    private void unindex(Task task) {
+        tasksById.remove(task.getId());
+        searchIndex.remove(task);
+        statistics.remove(task);
+        statusIndex.remove(task);
+        priorityIndex.remove(task);
+        updates.remove(task);
+        calendar.remove(task);
+        titles.remove(task);
+        reminders.cancel(task);
+    }
 
-            tasks = loadedTasks;
-            nextId = maxId + 1;
+    // ==================== ВЕРСИИ И ОТМЕНА ====================
 
-            System.out.println("✅ Данные загружены из файла: " + CSV_FILE);
-            System.out.println("📊 Загружено задач: " + tasks.size());
+    record UndoStep(String label, TaskTrie before, TaskTrie after, int[] ids) {}
 
-        } catch (IOException e) {
-            System.out.println("❌ Ошибка при загрузке из CSV: " + e.getMessage());
-        }
+    // Снимок текущего состояния: не меняется при последующих изменениях
+    TaskTrie snapshot() {
+        return version;
     }
 
-    private void saveToJSON() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(JSON_FILE))) {
-            writer.println("[");
-
-            for (int i = 0; i < tasks.size(); i++) {
-                writer.print(tasks.get(i).toJSON());
-                if (i < tasks.size() - 1) {
-                    writer.println(",");
-                } else {
-                    writer.println();
-                }
-            }
+    private void storeVersion(Task task) {
+        version = version.put(task);
+        if (operationLabel != null) operationIds.add(task.getId());
+    }
 
-            writer.println("]");
+    private void dropVersion(Task task) {
+        version = version.remove(task.getId());
+        if (operationLabel != null) operationIds.add(task.getId());
+    }
 
-            System.out.println("✅ Данные сохранены в файл: " + JSON_FILE);
-            System.out.println("📊 Сохранено задач: " + tasks.size());
+    private static final Map<String, String> MENU_OPERATIONS = Map.of(
+            "1", "Добавление задачи", "3", "Редактирование задачи",
+            "4", "Удаление задачи", "13", "Массовое изменение");
 
-        } catch (IOException e) {
-            System.out.println("❌ Ошибка при сохранении в JSON: " + e.getMessage());
-        }
+    // Операция (пункт меню или команда) отменяется целиком
+    private void beginOperation(String label) {
+        operationLabel = label;
+        operationStart = version;
+        operationIds.clear();
     }
 
-    private void loadFromJSON() {
-        File file = new File(JSON_FILE);
-        if (!file.exists()) {
-            System.out.println("📂 Файл " + JSON_FILE + " не найден.");
-            return;
+    private void endOperation() {
+        if (operationLabel != null && !operationIds.isEmpty() && UNDO_LIMIT > 0) {
+            int[] ids = operationIds.stream().mapToInt(Integer::intValue).toArray();
+            undoSteps.push(new UndoStep(operationLabel, operationStart, version, ids));
+            if (undoSteps.size() > UNDO_LIMIT) undoSteps.removeLast();
+            redoSteps.clear();
         }
+        operationLabel = null;
+        operationStart = null;
+        operationIds.clear();
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(JSON_FILE))) {
-            List<Task> loadedTasks = new ArrayList<>();
-            StringBuilder jsonContent = new StringBuilder();
-            String line;
-            int maxId = 0;
-
-            while ((line = reader.readLine()) != null) {
-                jsonContent.append(line);
-            }
-
-            String content = jsonContent.toString();
-            content = content.replace("[", "").replace("]", "").trim();
+    // Импорт заменяет все задачи: прежние шаги отмены к ним не относятся
+    private void clearUndo() {
+        undoSteps.clear();
+        redoSteps.clear();
+    }
 
-            if (content.isEmpty()) {
-                System.out.println("✅ Файл JSON пуст.");
-                return;
+    // Отмена (undo = true) или повтор последней операции: затронутые ею задачи
+    // приводятся к версии до (или после) нее. Изменения проходят через обычные
+    // методы изменения данных, поэтому попадают в журнал, индексы и события.
+    private UndoStep undo(boolean undo) {
+        UndoStep step = (undo ? undoSteps : redoSteps).poll();
+        if (step == null) return null;
+        TaskTrie target = undo ? step.before() : step.after();
+        for (int id : step.ids()) {
+            Task wanted = target.get(id);
+            Task current = tasksById.get(id);
+            if (wanted == null) {
+                if (current != null) removeTask(current);
+            } else if (current == null) {
+                Task restored = wanted.copy();
+                restored.setUpdatedAt(LocalDateTime.now());
+                restoreTask(restored);
+            } else {
+                updateTask(current, t -> t.restoreFrom(wanted), false);
             }
+        }
+        (undo ? redoSteps : undoSteps).push(step);
+        return step;
+    }
 
-            // Разделяем объекты
-            String[] objects = content.split("\\},\\{");
-
-            for (int i = 0; i < objects.length; i++) {
-                String obj = objects[i];
-                if (i == 0) obj = obj.substring(1); // Убираем первую {
-                if (i == objects.length - 1) obj = obj.substring(0, obj.length() - 1); // Убираем последнюю }
-
-                Map<String, String> fields = parseJsonObject(obj);
-
-                if (!fields.isEmpty()) {
-                    try {
-                        int id = Integer.parseInt(fields.get("id"));
-                        String title = fields.get("title");
-                        String description = fields.get("description");
-                        Status status = Status.valueOf(fields.get("status"));
-                        Priority priority = Priority.valueOf(fields.get("priority"));
-
-                        LocalDate deadline = null;
-                        String deadlineStr = fields.get("deadline");
-                        if (deadlineStr != null && !deadlineStr.isEmpty() && !deadlineStr.equals("null")) {
-                            deadline = LocalDate.parse(deadlineStr);
-                        }
+    private void undoMenu(boolean undo) {
+        UndoStep step = undo(undo);
+        if (step == null) {
+            System.out.println(undo ? "📭 Нечего отменять." : "📭 Нечего повторять.");
+            return;
+        }
+        commitJournal();
+        System.out.println((undo ? "↩️  Отменено: " : "↪️  Повторено: ") + step.label()
+                + " (задач: " + step.ids().length + ")");
+        System.out.println("   Осталось шагов отмены: " + undoSteps.size() + ", повтора: " + redoSteps.size());
+    }
 
-                        LocalDateTime createdAt = LocalDateTime.parse(fields.get("createdAt"));
-                        LocalDateTime updatedAt = LocalDateTime.parse(fields.get("updatedAt"));
+    // Текстовый индекс дорого строить, поэтому построенный индекс не
+    // сбрасывается, а сверяется с задачами по отметкам updatedAt
+    private void rebuildIndexes() {
+        tasksById.clear();
+        statistics.clear();
+        statusIndex.clear();
+        priorityIndex.clear();
+        updates.clear();
+        calendar.clear();
+        titles.clear();
+        reminders.clear();
+        for (Task task : tasks) {
+            indexFields(task);
+        }
+        if (searchIndex.isBuilt()) searchIndex.reconcile(tasks);
+        version = TaskTrie.of(tasks);
+    }
 
-                        Task task = new Task(id, title, description, status, priority, deadline, createdAt, updatedAt);
-                        loadedTasks.add(task);
-                        maxId = Math.max(maxId, id);
+    // ==================== НАПОМИНАНИЯ ====================
 
-                    } catch (Exception e) {
-                        System.out.println("⚠️  Ошибка при парсинге объекта JSON");
+    // Фоновый поток раз в минуту продвигает колесо таймеров и печатает
+    // сработавшие напоминания
+    private void startReminders() {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    Thread.sleep(60_000 - now % 60_000);
+                    for (DeadlineScheduler.Reminder reminder : reminders.advance(DeadlineScheduler.minuteOf(Instant.now()))) {
+                        printReminder(reminder);
                     }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }, "deadline-reminders");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-            tasks = loadedTasks;
-            nextId = maxId + 1;
+    private static void printReminder(DeadlineScheduler.Reminder reminder) {
+        Task task = reminder.task();
+        if (reminder.overdue()) {
+            System.out.printf("%n⏰ Дедлайн задачи #%d \"%s\" истек%n", task.getId(), task.getTitle());
+        } else if (reminder.minutesLeft() % 60 == 0) {
+            System.out.printf("%n🔔 До дедлайна задачи #%d \"%s\" осталось %d ч%n",
+                    task.getId(), task.getTitle(), reminder.minutesLeft() / 60);
+        } else {
+            System.out.printf("%n🔔 До дедлайна задачи #%d \"%s\" осталось %d мин%n",
+                    task.getId(), task.getTitle(), reminder.minutesLeft());
+        }
+    }
 
-            System.out.println("✅ Данные загружены из файла: " + JSON_FILE);
-            System.out.println("📊 Загружено задач: " + tasks.size());
+    // ==================== МЕТРИКИ ====================
 
-        } catch (IOException e) {
-            System.out.println("❌ Ошибка при загрузке из JSON: " + e.getMessage());
+    private static void timed(String operation, Runnable action) {
+        long started = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            METRICS.timer(operation).record(System.nanoTime() - started);
         }
     }
 
-    private Map<String, String> parseJsonObject(String json) {
-        Map<String, String> fields = new HashMap<>();
+    // Фоновая выгрузка метрик в metrics.txt каждые METRICS_INTERVAL секунд
+    private void startMetricsDump() {
+        if (METRICS_INTERVAL <= 0) return;
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                METRICS.dump(Paths.get(METRICS_FILE));
+            } catch (IOException e) {
+                System.out.println("❌ Ошибка записи метрик: " + e.getMessage());
+            }
+        }, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.SECONDS);
+    }
 
-        try {
-            String[] pairs = json.split(",");
-            for (String pair : pairs) {
-                String[] keyValue = pair.split(":", 2);
-                if (keyValue.length == 2) {
-                    String key = keyValue[0].trim().replace("\"", "").trim();
-                    String value = keyValue[1].trim();
-
-                    // Убираем кавычки если они есть
-                    if (value.startsWith("\"") && value.endsWith("\"")) {
-                        value = value.substring(1, value.length() - 1);
-                    }
+    // ==================== ВСПОМОГАТЕЛЬНЫЕ МЕТОДЫ ====================
 
-                    fields.put(key, value);
-                }
+    // Текстовый индекс готовится при первом поиске: берется сохраненный со
+    // снимком (он читается в фоне с запуска) и сверяется с задачами, а если
+    // файла нет или он не читается, строится заново. Вызывается там, где
+    // разрешена запись (меню, блокировка записи в execute).
+    private void ensureSearchIndex() {
+        if (searchIndex.isBuilt()) return;
+        long started = System.nanoTime();
+        Future<SearchIndex> stored = storedSearchIndex;
+        storedSearchIndex = null;
+        if (stored != null) {
+            try {
+                SearchIndex index = stored.get();
+                int fixed = index.reconcile(tasks);
+                searchIndex = index;
+                searchIndexWritten = fixed == 0 ? index.modifications() : -1;
+                METRICS.timer("searchIndexLoad").record(System.nanoTime() - started);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+                System.out.println("⚠️  Сохраненный текстовый индекс не прочитан: " + cause);
             }
-        } catch (Exception e) {
-            System.out.println("Ошибка парсинга JSON: " + e.getMessage());
         }
+        searchIndex.build(tasks);
+        METRICS.timer("searchIndexBuild").record(System.nanoTime() - started);
+    }
 
-        return fields;
+    // Индекс должен быть уже готов (ensureSearchIndex): поиск ничего не меняет
+    private List<Task> search(String query) {
+        long started = System.nanoTime();
+        List<Task> found = searchIndex.search(query);
+        METRICS.timer("search").record(System.nanoTime() - started);
+        return found;
     }
 
-    // ==================== ВСПОМОГАТЕЛЬНЫЕ МЕТОДЫ ====================
+    // Префиксное дерево строится при первой подсказке. Вызывается там, где
+    // разрешена запись (меню, блокировка записи в execute).
+    private void ensureTitleIndex() {
+        if (titles.isBuilt()) return;
+        long started = System.nanoTime();
+        titles.build(tasks);
+        METRICS.timer("titleTrieBuild").record(System.nanoTime() - started);
+    }
+
+    // Дерево должно быть уже построено (ensureTitleIndex)
+    private List<TitleTrie.Suggestion> suggest(String prefix) {
+        long started = System.nanoTime();
+        List<TitleTrie.Suggestion> found = titles.complete(prefix, SUGGESTIONS);
+        METRICS.timer("suggest").record(System.nanoTime() - started);
+        return found;
+    }
 
     private Task findTaskById(int id) {
+        return tasksById.get(id);
+    }
+
+    // Задачи, подходящие под условие, в порядке списка задач
+    private List<Task> tasksWhere(Predicate<Task> filter) {
+        List<Task> found = new ArrayList<>();
         for (Task task : tasks) {
-            if (task.getId() == id) {
+            if (filter.test(task)) found.add(task);
+        }
+        return found;
+    }
+
+    // То же по опубликованной версии (в порядке ID): читается без блокировки
+    private List<Task> publishedWhere(Predicate<Task> filter) {
+        List<Task> found = new ArrayList<>();
+        for (Task task : published.values()) {
+            if (filter.test(task)) found.add(task);
+        }
+        return found;
+    }
+
+    // Задача для редактирования или удаления: по ID или по началу названия.
+    // На текст показываются подсказки, из которых выбирается номер; пустой
+    // ввод выводит полный список, как раньше. null - задача не выбрана.
+    private Task chooseTask(String action) {
+        while (true) {
+            System.out.print("\nВведите ID или начало названия задачи для " + action + " (Enter - весь список): ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                showAllTasks();
+                System.out.print("\nВведите ID задачи для " + action + ": ");
+                input = scanner.nextLine().trim();
+            }
+            if (input.matches("\\d+")) {
+                int id;
+                try {
+                    id = Integer.parseInt(input);
+                } catch (NumberFormatException e) {
+                    System.out.println("❌ Неверный формат ID.");
+                    return null;
+                }
+                Task task = findTaskById(id);
+                if (task == null) {
+                    System.out.println("❌ Задача с ID " + id + " не найдена.");
+                }
                 return task;
             }
+
+            ensureTitleIndex();
+            List<TitleTrie.Suggestion> found = suggest(input);
+            if (found.isEmpty()) {
+                System.out.println("🔍 Задачи с таким названием не найдены.");
+                return null;
+            }
+            System.out.println();
+            for (int i = 0; i < found.size(); i++) {
+                TitleTrie.Suggestion suggestion = found.get(i);
+                Task task = suggestion.task();
+                System.out.printf("%2d. %s[ID %d] %s - %s%n", i + 1, suggestion.distance() > 0 ? "≈ " : "",
+                        task.getId(), task.getTitle(), task.getStatus());
+            }
+            // Неверный номер переспрашивается, пустой ввод - назад к названию
+            while (true) {
+                System.out.print("Номер подсказки (Enter - уточнить название): ");
+                String choice = scanner.nextLine().trim();
+                if (choice.isEmpty()) break;
+                try {
+                    int number = Integer.parseInt(choice);
+                    if (number >= 1 && number <= found.size()) return found.get(number - 1).task();
+                } catch (NumberFormatException e) {
+                    // Неверный номер обрабатывается ниже
+                }
+                System.out.println("❌ Неверный выбор. Введите номер от 1 до " + found.size() + ".");
+            }
         }
-        return null;
     }
 
     private Status selectStatus() {
@@ -1016,6 +6527,42 @@ public class TaskPlanner {
         }
     }
 
+    // Выбор значения перечисления, Enter - без условия (null)
+    private <E extends Enum<E>> E selectOptional(String name, E[] values) {
+        while (true) {
+            System.out.println("\n" + name + ":");
+            for (int i = 0; i < values.length; i++) {
+                System.out.printf("%d. %s\n", i + 1, values[i]);
+            }
+            System.out.print("Ваш выбор: ");
+
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) return null;
+            try {
+                int choice = Integer.parseInt(input);
+                if (choice >= 1 && choice <= values.length) {
+                    return values[choice - 1];
+                }
+            } catch (NumberFormatException e) {
+                // Продолжаем цикл
+            }
+            System.out.println("❌ Неверный выбор. Попробуйте снова.");
+        }
+    }
+
+    private LocalDate readOptionalDate(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) return null;
+            try {
+                return LocalDate.parse(input, DATE_FORMATTER);
+            } catch (DateTimeParseException e) {
+                System.out.println("❌ Неверный формат даты.");
+            }
+        }
+    }
+
     private LocalDate selectDeadline() {
         while (true) {
             System.out.println("\nУстановить дедлайн?");
@@ -1058,6 +6605,9 @@ public class TaskPlanner {
     }
 
     private void clearScreen() {
+        // Вывод перенаправлен в файл или канал - очищать нечего
+        if (System.console() == null) return;
+
         try {
             if (System.getProperty("os.name").contains("Windows")) {
                 new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
@@ -1074,8 +6624,67 @@ public class TaskPlanner {
 
     // ==================== ТОЧКА ВХОДА ====================
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // java TaskPlanner --stress [потоков] [секунд]
+        if (args.length >= 1 && args[0].equals("--stress")) {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            try {
+                runStressTest(threads, seconds, 100_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        // java TaskPlanner --generate N [seed] [ДД.ММ.ГГГГ]
+        if (args.length >= 2 && args[0].equals("--generate")) {
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+            LocalDate base = args.length > 3 ? LocalDate.parse(args[3], DATE_FORMATTER) : LocalDate.now();
+            generateData(Integer.parseInt(args[1]), seed, base);
+            return;
+        }
+
+        // java TaskPlanner --bench [размеры через запятую] [seed]
+        if (args.length >= 1 && args[0].equals("--bench")) {
+            int[] sizes = Arrays.stream((args.length > 1 ? args[1] : "10000,1000000").split(","))
+                    .mapToInt(Integer::parseInt).toArray();
+            runBenchmarks(sizes, args.length > 2 ? Long.parseLong(args[2]) : 42);
+            return;
+        }
+
+        // java TaskPlanner --server [порт]
+        if (args.length >= 1 && args[0].equals("--server")) {
+            runServer(args.length > 1 ? Integer.parseInt(args[1]) : SERVER_PORT);
+            return;
+        }
+
+        // java TaskPlanner --loadgen [клиентов] [запросов на клиента] [порт]
+        if (args.length >= 1 && args[0].equals("--loadgen")) {
+            int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            int port = args.length > 3 ? Integer.parseInt(args[3]) : SERVER_PORT;
+            try {
+                runLoadGenerator(port, clients, requests);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
         TaskPlanner planner = new TaskPlanner();
+
+        // java TaskPlanner --script файл (или "-" для чтения команд из stdin)
+        if (args.length >= 2 && args[0].equals("--script")) {
+            try (BufferedReader in = args[1].equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in))
+                    : new BufferedReader(new FileReader(args[1]))) {
+                planner.runScript(in);
+            }
+            planner.changes.close();
+            return;
+        }
+
         planner.run();
     }
 }